@@ -0,0 +1,109 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloading a version's external assets from an embedded HTTP server, so the numbers don't depend on the network
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AssetDownloadBenchmark {
+
+    @Param({"1000"})
+    int objects;
+
+    @Param({"8192"})
+    int objectSize;
+
+    @Param({"1", "16"})
+    int maxInFlight;
+
+    private Map<String, byte[]> content;
+    private byte[] assetIndex;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private Downloader downloader;
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        content = SyntheticData.assetObjects(objects, objectSize, 42);
+        assetIndex = SyntheticData.assetIndex(content);
+
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 128);
+        serverExecutor = Executors.newFixedThreadPool(32);
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = content.get(path.substring(path.lastIndexOf('/') + 1));
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        downloader = new Downloader();
+        downloader.assetUrlFormat = "http://127.0.0.1:" + server.getAddress().getPort() + "/%s/%s";
+        downloader.rateLimiter = new RateLimiter(0);
+        directory = Files.createTempDirectory("mcasset-bench").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        downloader.http.close();
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Setup(Level.Invocation)
+    public void clean() throws IOException {
+        FileUtils.cleanDirectory(directory);
+    }
+
+    @Benchmark
+    public int download() throws IOException, InterruptedException {
+        TreeSync sync = new TreeSync(directory, false);
+        try (AssetIndexReader reader = new AssetIndexReader(new ByteArrayInputStream(assetIndex))) {
+            new AssetDownloadEngine(downloader, null, maxInFlight, new AdaptiveLimiter(downloader.downloadMinInFlight, maxInFlight, downloader.rateLimiter)).downloadAll(reader, sync, null, null);
+        }
+        return sync.writtenCount();
+    }
+
+}
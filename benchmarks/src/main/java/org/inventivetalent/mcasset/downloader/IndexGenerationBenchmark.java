@@ -0,0 +1,77 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generating the _list.json/_all.json index files of an extracted tree
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexGenerationBenchmark {
+
+    @Param({"4000"})
+    int entries;
+
+    @Param({"1", "4"})
+    int threads;
+
+    private File directory;
+    private File target;
+    private List<String> paths;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mcasset-bench").toFile();
+        File jar = new File(directory, "client.jar");
+        target = new File(directory, "extract");
+        SyntheticData.writeJar(jar, entries, 42);
+        TreeSync sync = new TreeSync(target, true);
+        new JarExtractor(sync, threads).extract(jar);
+        try (Stream<java.nio.file.Path> stream = Files.walk(target.toPath())) {
+            paths = stream.filter(Files::isRegularFile)
+                    .map(path -> sync.relativePath(path.toFile()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public int generate() throws IOException {
+        TreeSync sync = new TreeSync(target, true);
+        for (String path : paths) {
+            sync.mark(path);
+        }
+        new IndexGenerator(sync, threads).generate();
+        return sync.writtenCount();
+    }
+
+}
@@ -0,0 +1,78 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extracting a client jar, from a stream and from a file on a pool, into a fresh tree or over an unchanged one
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JarExtractionBenchmark {
+
+    @Param({"4000"})
+    int entries;
+
+    @Param({"false", "true"})
+    boolean incremental;
+
+    @Param({"4"})
+    int threads;
+
+    private File directory;
+    private File jar;
+    private File target;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mcasset-bench").toFile();
+        jar = new File(directory, "client.jar");
+        target = new File(directory, "extract");
+        SyntheticData.writeJar(jar, entries, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Benchmark
+    public int streaming() throws IOException {
+        TreeSync sync = new TreeSync(target, incremental);
+        try (InputStream in = new FileInputStream(jar)) {
+            new JarExtractor(sync, 1).extract(in, jar.length(), null);
+        }
+        return sync.writtenCount();
+    }
+
+    @Benchmark
+    public int parallel() throws IOException {
+        TreeSync sync = new TreeSync(target, incremental);
+        new JarExtractor(sync, threads).extract(jar);
+        return sync.writtenCount();
+    }
+
+}
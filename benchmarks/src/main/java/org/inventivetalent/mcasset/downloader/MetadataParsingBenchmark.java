@@ -0,0 +1,63 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.stream.JsonReader;
+import org.inventivetalent.mcasset.downloader.data.Versions;
+import org.inventivetalent.mcasset.downloader.data.asset.Asset;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing the version manifest and walking an asset index
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetadataParsingBenchmark {
+
+    private byte[] manifest;
+    private byte[] assetIndex;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        manifest = SyntheticData.versionManifest(800);
+        assetIndex = SyntheticData.assetIndex(SyntheticData.assetObjects(4000, 64, 42));
+    }
+
+    @Benchmark
+    public Versions versionManifest() throws IOException {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(manifest), StandardCharsets.UTF_8))) {
+            return Downloader.GSON.fromJson(reader, Versions.class);
+        }
+    }
+
+    @Benchmark
+    public void assetIndex(Blackhole blackhole) throws IOException {
+        try (AssetIndexReader reader = new AssetIndexReader(new ByteArrayInputStream(assetIndex))) {
+            while (reader.hasNext()) {
+                Map.Entry<String, Asset> entry = reader.next();
+                blackhole.consume(entry);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates client jars, asset objects and metadata that look like the real ones, from a fixed seed so runs are comparable
+ */
+final class SyntheticData {
+
+    private SyntheticData() {
+    }
+
+    /**
+     * A jar with the given number of assets/ and data/ entries (half JSON, half binary) plus some classes that aren't extracted
+     */
+    static void writeJar(File file, int entries, long seed) throws IOException {
+        Random random = new Random(seed);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < entries / 4; i++) {
+                out.putNextEntry(new ZipEntry("net/minecraft/C" + i + ".class"));
+                out.write(randomBytes(random, 2048));
+                out.closeEntry();
+            }
+            for (int i = 0; i < entries; i++) {
+                String root = i % 2 == 0 ? "assets/minecraft/" : "data/minecraft/";
+                String directory = root + "dir" + (i % 64) + "/";
+                if (i % 3 == 0) {
+                    out.putNextEntry(new ZipEntry(directory + "texture" + i + ".png"));
+                    out.write(randomBytes(random, 512 + random.nextInt(4096)));
+                } else {
+                    out.putNextEntry(new ZipEntry(directory + "model" + i + ".json"));
+                    out.write(json(random, i).getBytes(StandardCharsets.UTF_8));
+                }
+                out.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * Asset objects (hash -> content)
+     */
+    static Map<String, byte[]> assetObjects(int count, int size, long seed) {
+        Random random = new Random(seed);
+        Map<String, byte[]> objects = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            byte[] content = randomBytes(random, size / 2 + random.nextInt(size));
+            objects.put(ObjectStore.hex(ObjectStore.newSha1().digest(content)), content);
+        }
+        return objects;
+    }
+
+    /**
+     * An asset index for the objects, in the format of the real ones
+     */
+    static byte[] assetIndex(Map<String, byte[]> objects) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            writer.beginObject().name("objects").beginObject();
+            int i = 0;
+            for (Map.Entry<String, byte[]> entry : objects.entrySet()) {
+                writer.name("minecraft/sounds/sound" + (i++) + ".ogg").beginObject()
+                        .name("hash").value(entry.getKey())
+                        .name("size").value(entry.getValue().length)
+                        .endObject();
+            }
+            writer.endObject().endObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A version_manifest_v2 with the given number of versions
+     */
+    static byte[] versionManifest(int versions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(bytes, StandardCharsets.UTF_8))) {
+            writer.beginObject();
+            writer.name("latest").beginObject().name("release").value("1.0." + (versions - 1)).name("snapshot").value("1.0." + (versions - 1)).endObject();
+            writer.name("versions").beginArray();
+            for (int i = versions - 1; i >= 0; i--) {
+                writer.beginObject()
+                        .name("id").value("1.0." + i)
+                        .name("type").value(i % 5 == 0 ? "release" : "snapshot")
+                        .name("url").value("https://piston-meta.mojang.com/v1/packages/" + i + "/1.0." + i + ".json")
+                        .name("time").value("2024-01-01T00:00:00+00:00")
+                        .name("releaseTime").value("2024-01-01T00:00:00+00:00")
+                        .name("sha1").value(String.format("%040x", i))
+                        .name("complianceLevel").value(1)
+                        .endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    static String json(Random random, int i) throws IOException {
+        StringWriter out = new StringWriter();
+        try (JsonWriter writer = new JsonWriter(out)) {
+            writer.setIndent("  ");
+            writer.beginObject();
+            writer.name("parent").value("block/cube_all");
+            writer.name("textures").beginObject().name("all").value("block/texture" + i).endObject();
+            writer.name("values").beginArray();
+            for (int j = 0; j < 8 + random.nextInt(32); j++) {
+                writer.value(random.nextInt());
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        return out.toString();
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+}
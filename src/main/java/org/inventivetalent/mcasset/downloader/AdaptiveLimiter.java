@@ -0,0 +1,115 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AIMD limit on the number of requests in flight: grows by one per limit's worth of healthy responses,
+ * halves on 429, 5xx or timeouts and pauses everyone for as long as a Retry-After asks.
+ * Optionally also paced by a {@link RateLimiter}.
+ */
+public class AdaptiveLimiter {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(AdaptiveLimiter.class);
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final RateLimiter rateLimiter;
+
+    private double limit;
+    private int inFlight;
+    private long lastDecrease = System.nanoTime();
+    private long pausedUntil = System.nanoTime();
+
+    public AdaptiveLimiter(int minLimit, int maxLimit, RateLimiter rateLimiter) {
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.rateLimiter = rateLimiter;
+        this.limit = this.minLimit;
+    }
+
+    /**
+     * Runs the request once there is room for it, and adjusts the limit by how it went
+     */
+    public <T> T call(Request<T> request) throws IOException {
+        long ticket;
+        try {
+            ticket = acquire();
+            if (rateLimiter != null) {
+                rateLimiter.acquire();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        try {
+            T result = request.run();
+            success();
+            return result;
+        } catch (IOException | RuntimeException e) {
+            failure(ticket, e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return when the request started, so a burst of failures that were all in flight together only cuts the limit once
+     */
+    private synchronized long acquire() throws InterruptedException {
+        while (true) {
+            long pause = pausedUntil - System.nanoTime();
+            if (pause > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, pause);
+            } else if (inFlight < (int) limit) {
+                inFlight++;
+                return System.nanoTime();
+            } else {
+                wait();
+            }
+        }
+    }
+
+    private synchronized void success() {
+        inFlight--;
+        if (limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    private synchronized void failure(long ticket, Exception e) {
+        inFlight--;
+        if (isOverload(e) && ticket - lastDecrease > 0) {
+            double previous = limit;
+            limit = Math.max(minLimit, limit / 2);
+            lastDecrease = System.nanoTime();
+            log.info("Server is struggling ({}), requests in flight {} -> {}", e.getMessage(), (int) previous, (int) limit);
+        }
+        if (e instanceof HttpStatusException status && status.retryAfterMillis() > 0) {
+            long retryAfter = Math.min(status.retryAfterMillis(), RetryPolicy.MAX_RETRY_AFTER_MILLIS);
+            pausedUntil = Math.max(pausedUntil, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+            log.info("Pausing downloads for {} ms (Retry-After)", retryAfter);
+        }
+        notifyAll();
+    }
+
+    static boolean isOverload(Exception e) {
+        if (e instanceof HttpStatusException status) {
+            return status.isOverload();
+        }
+        // socket, connect and pool timeouts
+        return e instanceof InterruptedIOException;
+    }
+
+    public synchronized int limit() {
+        return (int) limit;
+    }
+
+    public interface Request<T> {
+        T run() throws IOException;
+    }
+
+}
@@ -0,0 +1,151 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+import org.inventivetalent.mcasset.downloader.data.asset.Asset;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads external assets on a bounded pool, with as many requests in flight as the server keeps up with (see {@link AdaptiveLimiter})
+ */
+public class AssetDownloadEngine {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(AssetDownloadEngine.class);
+
+    private final Downloader downloader;
+    private final ObjectStore objectStore;
+    private final int maxInFlight;
+    private final AdaptiveLimiter limiter;
+
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger storeHits = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * @param maxInFlight size of the download pool, the limiter decides how much of it is used
+     */
+    public AssetDownloadEngine(Downloader downloader, ObjectStore objectStore, int maxInFlight, AdaptiveLimiter limiter) {
+        this.downloader = downloader;
+        this.objectStore = objectStore;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.limiter = limiter;
+    }
+
+    /**
+     * Downloads all assets into the tree as they are read from the index, reporting the number of finished files through the callback
+     */
+    public void downloadAll(Iterator<Map.Entry<String, Asset>> objects, TreeSync sync, VersionJournal journal, ProgressCallback callback) throws IOException, InterruptedException {
+        AtomicInteger submitted = new AtomicInteger();
+        int filtered = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(maxInFlight);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+        if (callback != null) {
+            reporter.scheduleAtFixedRate(() -> callback.call(completed.get(), submitted.get()), 0, ProgressCallback.INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            while (objects.hasNext()) {
+                Map.Entry<String, Asset> entry = objects.next();
+                if (!sync.accepts("assets/" + entry.getKey())) {
+                    filtered++;
+                    continue;
+                }
+                submitted.incrementAndGet();
+                futures.add(executor.submit(() -> {
+                    try {
+                        download(entry.getKey(), entry.getValue(), sync, journal);
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        log.warn("Failed to download asset {}", entry.getKey(), e);
+                    }
+                    completed.incrementAndGet();
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            reporter.shutdownNow();
+        }
+        int total = submitted.get();
+        if (callback != null) {
+            callback.call(completed.get(), total);
+        }
+
+        if (filtered > 0) {
+            log.info("Skipped {} external assets excluded by the path filter", filtered);
+        }
+        log.info("Finished with up to {} asset downloads in flight", limiter.limit());
+        if (objectStore != null) {
+            log.info("{}/{} external assets were served from the object store", storeHits.get(), total);
+        }
+        if (failed.get() > 0) {
+            throw new IOException(failed.get() + " external assets failed to download");
+        }
+    }
+
+    void download(String name, Asset asset, TreeSync sync, VersionJournal journal) throws IOException, InterruptedException {
+        String hash = asset.hash();
+        String path = "assets/" + name;
+        if (journal != null && journal.isFileDone(path, hash) && sync.file(path).length() == asset.size()) {
+            // possibly written by an interrupted run and not committed yet, the sync records it as restored while resuming
+            sync.unchanged(path);
+            return;
+        }
+        if (sync.skipIfUpToDate(path, hash, objectStore != null ? objectStore.file(hash) : null)) {
+            if (journal != null) {
+                journal.fileDone(path, hash);
+            }
+            return;
+        }
+        File output = sync.file(path);
+        sync.mkdirs(output.getParentFile());
+        if (objectStore != null && objectStore.copyTo(hash, output)) {
+            storeHits.incrementAndGet();
+            sync.written(path, hash);
+            if (journal != null) {
+                journal.fileDone(path, hash);
+            }
+            return;
+        }
+
+        String url = String.format(downloader.assetUrlFormat, hash.substring(0, 2), hash);
+        File target = objectStore != null ? objectStore.tempFile(hash) : output;
+        // verified while downloading, so the store can take it as-is
+        downloader.downloadFileRetry(url, target, hash, (now, total) -> {
+        }, limiter);
+        if (objectStore != null) {
+            objectStore.commitVerified(hash, target);
+            if (!objectStore.copyTo(hash, output)) {
+                // evicted again before we got to copy it, fetch it straight into the tree instead
+                downloader.downloadFileRetry(url, output, hash, (now, total) -> {
+                }, limiter);
+            }
+        }
+        sync.written(path, hash);
+        if (journal != null) {
+            journal.fileDone(path, hash);
+        }
+    }
+
+}
@@ -0,0 +1,87 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.inventivetalent.mcasset.downloader.data.asset.Asset;
+import org.inventivetalent.mcasset.downloader.data.asset.AssetTypeAdapter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * Reads the "objects" of an asset index one entry at a time, so downloads can start before the whole index has been parsed
+ */
+public class AssetIndexReader implements Iterator<Map.Entry<String, Asset>>, Closeable {
+
+    private static final AssetTypeAdapter ASSET_ADAPTER = new AssetTypeAdapter();
+
+    private final InputStream in;
+    private final JsonReader reader;
+    private boolean inObjects;
+    private boolean done;
+
+    public AssetIndexReader(InputStream in) {
+        this.in = in;
+        this.reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            if (done) {
+                return false;
+            }
+            if (!inObjects) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if ("objects".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                        reader.beginObject();
+                        inObjects = true;
+                        break;
+                    }
+                    reader.skipValue();
+                }
+                if (!inObjects) {
+                    done = true;
+                    return false;
+                }
+            }
+            if (reader.hasNext()) {
+                return true;
+            }
+            reader.endObject();
+            done = true;
+            return false;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map.Entry<String, Asset> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        try {
+            String name = reader.nextName();
+            return new AbstractMap.SimpleImmutableEntry<>(name, Objects.requireNonNull(ASSET_ADAPTER.read(reader)));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
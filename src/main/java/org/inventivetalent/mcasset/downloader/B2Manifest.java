@@ -0,0 +1,107 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.backblaze.b2.client.B2StorageClient;
+import com.backblaze.b2.client.exceptions.B2Exception;
+import com.backblaze.b2.client.structures.B2FileVersion;
+import com.backblaze.b2.client.structures.B2ListFileNamesRequest;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Local record of what was uploaded to B2 (file name -> sha1/size), so unchanged files don't have to be uploaded again.
+ * Rebuilt from a bucket listing if it doesn't exist yet.
+ */
+public class B2Manifest {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(B2Manifest.class);
+
+    private final File file;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public B2Manifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Loads the manifest, or lists the bucket (only file names starting with the prefix) if there is none yet
+     */
+    public void load(B2StorageClient client, String bucketId, String prefix) throws IOException, B2Exception {
+        entries.clear();
+        if (file.exists()) {
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+                Map<String, Entry> loaded = new Gson().fromJson(reader, new TypeToken<Map<String, Entry>>() {
+                }.getType());
+                if (loaded != null) {
+                    entries.putAll(loaded);
+                }
+            }
+            return;
+        }
+
+        log.info("Rebuilding B2 manifest from bucket listing ({})...", prefix);
+        for (B2FileVersion version : client.fileNames(B2ListFileNamesRequest.builder(bucketId).setPrefix(prefix).build())) {
+            String sha1 = sha1(version);
+            if (sha1 != null) {
+                entries.put(version.getFileName(), new Entry(sha1, version.getContentLength()));
+            }
+        }
+        log.info("Found {} files in bucket", entries.size());
+        save();
+    }
+
+    private static String sha1(B2FileVersion version) {
+        String sha1 = version.getContentSha1();
+        if (sha1 == null || "none".equals(sha1)) {
+            // large files only have the sha1 in their file info, if at all
+            return version.getLargeFileSha1OrNull();
+        }
+        if (sha1.startsWith("unverified:")) {
+            return sha1.substring("unverified:".length());
+        }
+        return sha1;
+    }
+
+    public boolean isUploaded(String name, String sha1, long size) {
+        Entry entry = entries.get(name);
+        return entry != null && entry.size() == size && entry.sha1().equalsIgnoreCase(sha1);
+    }
+
+    public void uploaded(String name, String sha1, long size) {
+        entries.put(name, new Entry(sha1, size));
+    }
+
+    public void save() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new Gson().toJson(new TreeMap<>(entries), writer);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public record Entry(
+            String sha1,
+            long size
+    ) {
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Stores every file of the version trees once, by sha1 (xx/hash), and hard-links it into each tree that contains it,
+ * so identical files of different versions share their disk space.
+ * Unlike the {@link ObjectStore} nothing is evicted while it is in use: a blob is garbage once no tree links to it any more.
+ * The blob store owns the tree files: a tree file hard-linked from the object store is linked to its blob like any other
+ * (a new blob then shares the object's inode), and the object store's own link doesn't keep a blob alive.
+ */
+public class BlobStore {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(BlobStore.class);
+
+    private final File directory;
+    private final File objectDirectory;
+
+    /**
+     * @param objectDirectory the {@link ObjectStore}'s directory, whose links to blobs are ignored by {@link #gc()} (may be null)
+     */
+    public BlobStore(File directory, File objectDirectory) {
+        this.directory = directory;
+        this.objectDirectory = objectDirectory;
+    }
+
+    File file(String hash) {
+        return new File(directory, hash.substring(0, 2) + "/" + hash);
+    }
+
+    /**
+     * Replaces every file of the run that isn't linked yet with a link to its blob, adding the blob if it's new
+     */
+    public void linkTree(TreeSync sync, int threads) throws IOException {
+        AtomicInteger linked = new AtomicInteger();
+        AtomicInteger added = new AtomicInteger();
+        List<String> paths = new ArrayList<>(sync.paths());
+        // a file with several links may be linked from the object store or another tree, only its inode tells whether it is a blob
+        Set<Object> blobKeys = blobKeys();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.submit(() -> paths.parallelStream().forEach(path -> {
+                try {
+                    File file = sync.file(path);
+                    if (!file.isFile() || links(file.toPath()) > 1 && blobKeys.contains(fileKey(file.toPath()))) {
+                        return;
+                    }
+                    String sha1 = sync.verifiedSha1(path);
+                    if (sha1 == null) {
+                        sha1 = ObjectStore.sha1(file);
+                    }
+                    if (link(sha1, file)) {
+                        added.incrementAndGet();
+                    }
+                    linked.incrementAndGet();
+                } catch (IOException e) {
+                    log.debug("Failed to link {} into the blob store", path, e);
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            pool.shutdown();
+        }
+        log.info("Linked {} files into the blob store ({} new blobs)", linked.get(), added.get());
+    }
+
+    /**
+     * @return whether the file became a new blob (otherwise it now links to the existing one)
+     */
+    boolean link(String sha1, File file) throws IOException {
+        File blob = file(sha1.toLowerCase());
+        blob.getParentFile().mkdirs();
+        try {
+            Files.createLink(blob.toPath(), file.toPath());
+            return true;
+        } catch (FileAlreadyExistsException ignored) {
+        }
+        if (Files.isSameFile(blob.toPath(), file.toPath())) {
+            return false;
+        }
+        // link next to the file and move it over, so the path never goes missing
+        Path tmp = file.toPath().resolveSibling(file.getName() + "." + Thread.currentThread().getId() + ".link");
+        Files.deleteIfExists(tmp);
+        Files.createLink(tmp, blob.toPath());
+        Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return false;
+    }
+
+    /**
+     * Deletes all blobs that no tree links to any more. A link from the object store's copy of the same object doesn't count.
+     *
+     * @return the number of deleted blobs
+     */
+    public int gc() throws IOException {
+        if (!directory.isDirectory()) {
+            return 0;
+        }
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicLong freed = new AtomicLong();
+        try (Stream<Path> stream = Files.walk(directory.toPath(), 2)) {
+            stream.filter(Files::isRegularFile).forEach(path -> {
+                try {
+                    if (links(path) - objectLinks(path) <= 1) {
+                        long size = Files.size(path);
+                        Files.delete(path);
+                        deleted.incrementAndGet();
+                        freed.addAndGet(size);
+                    }
+                } catch (IOException e) {
+                    log.warn("Failed to check blob {}", path, e);
+                }
+            });
+        }
+        log.info("Deleted {} unreferenced blobs ({} MB)", deleted.get(), freed.get() / 1024 / 1024);
+        return deleted.get();
+    }
+
+    private Set<Object> blobKeys() throws IOException {
+        Set<Object> keys = new HashSet<>();
+        if (!directory.isDirectory()) {
+            return keys;
+        }
+        try (Stream<Path> stream = Files.walk(directory.toPath(), 2)) {
+            for (Path path : (Iterable<Path>) stream::iterator) {
+                Object key = fileKey(path);
+                if (key != null && Files.isRegularFile(path)) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * @return 1 if the object store holds this blob's object as a link to the same inode, 0 otherwise
+     */
+    private int objectLinks(Path blob) throws IOException {
+        if (objectDirectory == null) {
+            return 0;
+        }
+        String hash = blob.getFileName().toString();
+        // same xx/hash layout as the blob store
+        Path object = new File(objectDirectory, hash.substring(0, 2) + "/" + hash).toPath();
+        return Files.isRegularFile(object) && Files.isSameFile(object, blob) ? 1 : 0;
+    }
+
+    private static Object fileKey(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    static int links(Path path) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(path, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            throw new IOException("Hard link counts are not supported on this filesystem", e);
+        }
+    }
+
+}
@@ -1,59 +1,115 @@
 package org.inventivetalent.mcasset.downloader;
 
-import com.backblaze.b2.client.B2StorageClient;
-import com.backblaze.b2.client.B2StorageClientFactory;
-import com.backblaze.b2.client.contentSources.B2ContentTypes;
-import com.backblaze.b2.client.contentSources.B2FileContentSource;
-import com.backblaze.b2.client.structures.B2UploadFileRequest;
 import com.google.gson.*;
+import com.google.gson.stream.JsonReader;
 import org.apache.commons.io.FileUtils;
-import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.Strings;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.RefNotFoundException;
-import org.eclipse.jgit.lib.Ref;
-import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.TextProgressMonitor;
-import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.transport.CredentialsProvider;
-import org.eclipse.jgit.transport.PushResult;
-import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.inventivetalent.mcasset.downloader.data.Downloads;
+import org.eclipse.jgit.transport.RefSpec;
+import org.inventivetalent.mcasset.downloader.data.Download;
 import org.inventivetalent.mcasset.downloader.data.Version;
 import org.inventivetalent.mcasset.downloader.data.Versions;
 import org.inventivetalent.mcasset.downloader.data.asset.Asset;
-import org.inventivetalent.mcasset.downloader.data.asset.AssetObjects;
+import org.inventivetalent.mcasset.downloader.data.asset.AssetIndex;
+import org.inventivetalent.mcasset.downloader.data.asset.AssetTypeAdapter;
 import org.inventivetalent.mcasset.downloader.data.asset.VersionAssetDetails;
 
 import java.io.*;
-import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 public class Downloader {
 
     static final String VERSIONS_URL = "https://piston-meta.mojang.com/mc/game/version_manifest_v2.json";
     static final String EXTERNAL_ASSET_FORMAT = "https://resources.download.minecraft.net/%s/%s";
 
+    static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Asset.class, new AssetTypeAdapter())
+            .create();
+
+    static final ProgressCallback CONSOLE_PROGRESS = (now, total) -> {
+        try {
+            System.out.write(("\rDownloaded " + (Math.round(now * 100.0) / 100.0) + "MB/" + (Math.round(total * 100.0) / 100.0) + "MB").getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    };
+
     private final Logger log = org.apache.logging.log4j.LogManager.getLogger(Downloader.class);
 
     boolean gitEnabled = true;
     String gitRepo = "https://github.com/InventivetalentDev/minecraft-assets.git";
     String gitEmail = "user@example.com";
     String gitPassword = "myPassword";
+    String gitMirrorPath = "git-mirror";
+    boolean directCommit = true;
     String b2Bucket = "";
     String b2App = "";
     String b2AppKey = "";
+    String b2ManifestDirectory = "b2-manifest";
+    String storePath = "objects";
+    long storeMaxSize = 0;
+    boolean storeLink = false;
+    int downloadMaxInFlight = 16;
+    int downloadMinInFlight = 2;
+    double downloadRequestsPerSecond = 0;
+    int downloadAttempts = 5;
+    long downloadRetryDelay = 1000;
+    long downloadRetryMaxDelay = 60000;
+    String assetUrlFormat = EXTERNAL_ASSET_FORMAT;
+    int downloadSegments = 4;
+    long downloadSegmentThreshold = 16L * 1024 * 1024;
+    boolean streamingExtract = true;
+    boolean incrementalSync = true;
+    String journalPath = "journal";
+    String packPath = "";
+    List<String> filterIncludes = List.of();
+    List<String> filterExcludes = List.of();
+    PathFilter pathFilter = PathFilter.ALL;
+    String blobsPath = "";
+    String manifestPath = "manifests";
+    int extractThreads = Runtime.getRuntime().availableProcessors();
+    int pipelineVersions = 3;
+    Map<VersionJob.Stage, Integer> pipelineStageConcurrency = new EnumMap<>(VersionJob.Stage.class);
+
+    long watchInterval = 300;
+    Set<String> watchTypes = new HashSet<>(Arrays.asList("release", "snapshot"));
+    String watchState = "watch-state.json";
+
+    String serveBind = "127.0.0.1";
+    int servePort = 8080;
+    int serveThreads = 32;
+    long serveIndexCache = 64L * 1024 * 1024;
+    int serveEtagCache = 100000;
+
+    String metricsReport = "run-report.json";
+    int metricsPort = 0;
+
+    Metrics metrics = new Metrics();
+    HttpTransport http = new HttpTransport(10000, 30000, 64, 32, metrics);
+    RetryPolicy retryPolicy = new RetryPolicy(downloadAttempts, downloadRetryDelay, downloadRetryMaxDelay, metrics);
 
     Versions versions;
+    ObjectStore objectStore;
+    MetadataCache metadataCache = new MetadataCache(this, new File("metadata-cache"));
+    GitMirror gitMirror;
+    RateLimiter rateLimiter = new RateLimiter(downloadRequestsPerSecond);
+    // shared by all versions, so what one version learned about the server's capacity carries over to the next
+    AdaptiveLimiter downloadLimiter = new AdaptiveLimiter(downloadMinInFlight, downloadMaxInFlight, rateLimiter);
 
     public void readConfig() {
         File configFile = new File("config.properties");
@@ -80,10 +136,251 @@ public class Downloader {
         this.gitRepo = properties.getProperty("git.repo");
         this.gitEmail = properties.getProperty("git.email");
         this.gitPassword = properties.getProperty("git.password");
+        this.gitMirrorPath = properties.getProperty("git.mirror", this.gitMirrorPath);
+        this.directCommit = Boolean.parseBoolean(properties.getProperty("git.directCommit", "true"));
 
         this.b2Bucket = properties.getProperty("b2.bucket");
         this.b2App = properties.getProperty("b2.app");
         this.b2AppKey = properties.getProperty("b2.appkey");
+        this.b2ManifestDirectory = properties.getProperty("b2.manifest", this.b2ManifestDirectory);
+
+        this.storePath = properties.getProperty("store.path", this.storePath);
+        this.storeMaxSize = Long.parseLong(properties.getProperty("store.maxSize", "0")) * 1024 * 1024;
+        this.storeLink = Boolean.parseBoolean(properties.getProperty("store.link", "false"));
+
+        this.downloadMaxInFlight = Integer.parseInt(properties.getProperty("download.maxInFlight", "16"));
+        this.downloadMinInFlight = Integer.parseInt(properties.getProperty("download.minInFlight", String.valueOf(this.downloadMinInFlight)));
+        this.downloadRequestsPerSecond = Double.parseDouble(properties.getProperty("download.requestsPerSecond", "0"));
+        this.downloadAttempts = Integer.parseInt(properties.getProperty("download.attempts", String.valueOf(this.downloadAttempts)));
+        this.downloadRetryDelay = Long.parseLong(properties.getProperty("download.retryDelay", String.valueOf(this.downloadRetryDelay)));
+        this.downloadRetryMaxDelay = Long.parseLong(properties.getProperty("download.retryMaxDelay", String.valueOf(this.downloadRetryMaxDelay)));
+        this.retryPolicy = new RetryPolicy(this.downloadAttempts, this.downloadRetryDelay, this.downloadRetryMaxDelay, this.metrics);
+        this.assetUrlFormat = properties.getProperty("download.assetUrl", this.assetUrlFormat);
+        this.downloadSegments = Integer.parseInt(properties.getProperty("download.segments", String.valueOf(this.downloadSegments)));
+        this.downloadSegmentThreshold = Long.parseLong(properties.getProperty("download.segmentThreshold", String.valueOf(this.downloadSegmentThreshold)));
+        this.streamingExtract = Boolean.parseBoolean(properties.getProperty("extract.streaming", "true"));
+        this.incrementalSync = Boolean.parseBoolean(properties.getProperty("sync.incremental", "true"));
+        this.journalPath = properties.getProperty("journal.path", this.journalPath);
+        this.packPath = properties.getProperty("pack.path", this.packPath);
+        this.filterIncludes = PathFilter.split(properties.getProperty("filter.include", ""));
+        this.filterExcludes = PathFilter.split(properties.getProperty("filter.exclude", ""));
+        this.pathFilter = new PathFilter(this.filterIncludes, this.filterExcludes);
+        this.blobsPath = properties.getProperty("blobs.path", this.blobsPath);
+        this.manifestPath = properties.getProperty("manifest.path", this.manifestPath);
+        this.extractThreads = Integer.parseInt(properties.getProperty("extract.threads", String.valueOf(this.extractThreads)));
+        this.rateLimiter = new RateLimiter(this.downloadRequestsPerSecond);
+        this.downloadLimiter = new AdaptiveLimiter(this.downloadMinInFlight, this.downloadMaxInFlight, this.rateLimiter);
+
+        this.metadataCache = new MetadataCache(this, new File(properties.getProperty("metadata.cache", "metadata-cache")));
+
+        this.pipelineVersions = Integer.parseInt(properties.getProperty("pipeline.versions", String.valueOf(this.pipelineVersions)));
+        for (VersionJob.Stage stage : VersionJob.Stage.values()) {
+            String key = "pipeline." + stage.name().toLowerCase();
+            if (properties.containsKey(key)) {
+                this.pipelineStageConcurrency.put(stage, Integer.parseInt(properties.getProperty(key)));
+            }
+        }
+
+        try {
+            this.http.close();
+        } catch (IOException ignored) {
+        }
+        this.http = new HttpTransport(
+                Integer.parseInt(properties.getProperty("http.connectTimeout", "10000")),
+                Integer.parseInt(properties.getProperty("http.readTimeout", "30000")),
+                Integer.parseInt(properties.getProperty("http.maxConnections", "64")),
+                Integer.parseInt(properties.getProperty("http.maxConnectionsPerHost", "32")),
+                metrics
+        );
+
+        this.watchInterval = Long.parseLong(properties.getProperty("watch.interval", String.valueOf(this.watchInterval)));
+        this.watchTypes = Arrays.stream(properties.getProperty("watch.types", String.join(",", this.watchTypes)).split(","))
+                .map(String::trim)
+                .filter(type -> !type.isEmpty())
+                .collect(Collectors.toSet());
+        this.watchState = properties.getProperty("watch.state", this.watchState);
+
+        this.serveBind = properties.getProperty("serve.bind", this.serveBind);
+        this.servePort = Integer.parseInt(properties.getProperty("serve.port", String.valueOf(this.servePort)));
+        this.serveThreads = Integer.parseInt(properties.getProperty("serve.threads", String.valueOf(this.serveThreads)));
+        this.serveIndexCache = Long.parseLong(properties.getProperty("serve.indexCache", "64")) * 1024 * 1024;
+        this.serveEtagCache = Integer.parseInt(properties.getProperty("serve.etagCache", String.valueOf(this.serveEtagCache)));
+
+        this.metricsReport = properties.getProperty("metrics.report", this.metricsReport);
+        this.metricsPort = Integer.parseInt(properties.getProperty("metrics.port", String.valueOf(this.metricsPort)));
+    }
+
+    public void initObjectStore() {
+        if (Strings.isBlank(this.storePath)) {
+            log.info("Object store is disabled");
+            return;
+        }
+        this.objectStore = new ObjectStore(new File(this.storePath), this.storeMaxSize, this.storeLink);
+        try {
+            this.objectStore.load();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return where version journals are kept, or null if resuming is disabled (it needs incremental sync, otherwise the extract directory is wiped)
+     */
+    File journalDirectory() {
+        if (!incrementalSync || Strings.isBlank(this.journalPath)) {
+            return null;
+        }
+        return new File(this.journalPath);
+    }
+
+    /**
+     * @return where version packs are written, or null if packing is disabled
+     */
+    File packDirectory() {
+        if (Strings.isBlank(this.packPath)) {
+            return null;
+        }
+        return new File(this.packPath);
+    }
+
+    /**
+     * @return the store version trees are deduplicated into, or null if that is disabled
+     */
+    BlobStore blobStore() {
+        if (Strings.isBlank(this.blobsPath)) {
+            return null;
+        }
+        return new BlobStore(new File(this.blobsPath), Strings.isBlank(this.storePath) ? null : new File(this.storePath));
+    }
+
+    /**
+     * @return where version manifests are kept, or null if they aren't
+     */
+    File manifestDirectory() {
+        if (Strings.isBlank(this.manifestPath)) {
+            return null;
+        }
+        return new File(this.manifestPath);
+    }
+
+    /**
+     * The manifest recorded when the version was processed, or else one read from the jar's central directory and the asset index
+     */
+    VersionManifest manifest(Version version) throws IOException {
+        File directory = manifestDirectory();
+        File file = directory != null ? new File(directory, VersionJob.safeVersion(version.id()) + ".json") : null;
+        if (file != null && file.isFile()) {
+            return VersionManifest.load(file);
+        }
+        log.info("Reading the manifest of {} from its jar's central directory", version.id());
+        VersionAssetDetails details = readJson(version.url(), version.sha1(), VersionAssetDetails.class);
+        VersionManifest manifest = VersionManifest.build(this, details, null);
+        if (file != null) {
+            manifest.save(file);
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the paths added, removed and changed between the two versions as JSON
+     *
+     * @param output file to write to, or null for stdout
+     */
+    public void diff(String from, String to, File output) {
+        Version fromVersion = findVersion(resolveLatest(from));
+        Version toVersion = findVersion(resolveLatest(to));
+        try {
+            String json = VersionManifest.toJson(manifest(fromVersion).diff(fromVersion.id(), toVersion.id(), manifest(toVersion)));
+            if (output != null) {
+                Files.write(output.toPath(), json.getBytes(StandardCharsets.UTF_8));
+                log.info("Wrote diff of {} and {} to {}", fromVersion.id(), toVersion.id(), output);
+            } else {
+                System.out.println(json);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private String resolveLatest(String version) {
+        if ("latest-release".equals(version)) {
+            return this.versions.latest().release();
+        }
+        if ("latest-snapshot".equals(version)) {
+            return this.versions.latest().snapshot();
+        }
+        return version;
+    }
+
+    public void gcBlobs() {
+        BlobStore blobStore = blobStore();
+        if (blobStore == null) {
+            log.info("Blob store is disabled");
+            return;
+        }
+        try {
+            blobStore.gc();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void initMetrics() {
+        if (this.metricsPort <= 0) {
+            return;
+        }
+        try {
+            this.metrics.serve(this.metricsPort);
+        } catch (IOException e) {
+            log.warn("Failed to serve metrics on port {}", this.metricsPort, e);
+        }
+    }
+
+    public void writeMetricsReport() {
+        if (!Strings.isBlank(this.metricsReport)) {
+            this.metrics.writeReport(new File(this.metricsReport));
+        }
+    }
+
+    public void initGitMirror() {
+        if (!gitEnabled || Strings.isBlank(this.gitMirrorPath)) {
+            return;
+        }
+        this.gitMirror = new GitMirror(new File(this.gitMirrorPath), this.gitRepo);
+    }
+
+    public VersionWatcher createWatcher() {
+        return new VersionWatcher(this, TimeUnit.SECONDS.toMillis(this.watchInterval), this.watchTypes, new File(this.watchState));
+    }
+
+    public VersionServer createServer() {
+        return new VersionServer(VersionJob.EXTRACT_ROOT, new InetSocketAddress(this.serveBind, this.servePort), this.serveThreads, this.serveIndexCache, this.serveEtagCache);
+    }
+
+    static List<String> splitGlobs(String[] values) {
+        List<String> globs = new ArrayList<>();
+        for (String value : values) {
+            globs.addAll(PathFilter.split(value));
+        }
+        return globs;
+    }
+
+    /**
+     * Replaces the include and/or exclude globs from the config (null keeps the configured ones)
+     *
+     * @param includes comma-separated lists of globs, as given on the command line
+     */
+    public void setPathFilter(String[] includes, String[] excludes) {
+        if (includes != null) {
+            this.filterIncludes = splitGlobs(includes);
+        }
+        if (excludes != null) {
+            this.filterExcludes = splitGlobs(excludes);
+        }
+        this.pathFilter = new PathFilter(this.filterIncludes, this.filterExcludes);
+        if (!this.pathFilter.isAll()) {
+            log.info("Path filter: {}", this.pathFilter);
+        }
     }
 
     public void setGitEnabled(boolean gitEnabled) {
@@ -91,16 +388,21 @@ public class Downloader {
     }
 
     public void initVersions() {
-        JsonElement jsonElement = new JsonParser().parse(readUrl(VERSIONS_URL));
-        JsonObject jsonObject = jsonElement.getAsJsonObject();
-
-        this.versions = new Gson().fromJson(jsonObject, Versions.class);
+        refreshVersions();
 
         log.info("Versions initialized");
         log.info("Latest: " + this.versions.latest().release() + " release / " + this.versions.latest().snapshot() + " snapshot");
         log.info("Found " + this.versions.versions().size() + " individual versions");
     }
 
+    /**
+     * Revalidates the version manifest, even if this run already fetched it
+     */
+    void refreshVersions() {
+        metadataCache.invalidate(VERSIONS_URL);
+        this.versions = readJson(VERSIONS_URL, null, Versions.class);
+    }
+
     void downloadVersion(String version) {
         if ("latest-release".equals(version)) {
             log.info("Downloading latest release");
@@ -114,478 +416,290 @@ public class Downloader {
         }
         if ("latest".equals(version)) {
             log.info("Downloading latest snapshot & release");
-            downloadVersion(this.versions.latest().snapshot());
-            downloadVersion(this.versions.latest().release());
+            downloadVersions(Arrays.asList(findVersion(this.versions.latest().snapshot()), findVersion(this.versions.latest().release())), false);
             return;
         }
 
         if ("all-snapshots".equals(version)) {
             log.info("Downloading all snapshot versions...");
-            this.versions.versions().stream().filter(version1 -> "snapshot".equals(version1.type())).forEach(version1 -> downloadVersion(version1.id()));
+            downloadVersions(this.versions.versions().stream().filter(version1 -> "snapshot".equals(version1.type())).collect(Collectors.toList()), true);
             return;
         }
         if ("all-releases".equals(version)) {
             log.info("Downloading all release versions...");
-            this.versions.versions().stream().filter(version1 -> "release".equals(version1.type())).forEach(version1 -> downloadVersion(version1.id()));
+            downloadVersions(this.versions.versions().stream().filter(version1 -> "release".equals(version1.type())).collect(Collectors.toList()), true);
             return;
         }
 
+        downloadVersions(Collections.singletonList(findVersion(version)), false);
+    }
+
+    Version findVersion(String version) {
         // Validate version
-        Version versionObject = null;
         for (Version version1 : versions.versions()) {
             if (version1.id().equals(version)) {
-                versionObject = version1;
-                break;
+                return version1;
             }
         }
-        if (versionObject == null) {
-            throw new IllegalArgumentException("Version " + version + " does not exist in index");
-        }
+        throw new IllegalArgumentException("Version " + version + " does not exist in index");
+    }
+
+    /**
+     * @param skipCompleted whether versions an earlier run already finished are skipped, explicitly requested versions are processed again
+     */
+    void downloadVersions(List<Version> versions, boolean skipCompleted) {
+        new VersionPipeline(this, pipelineVersions, pipelineStageConcurrency, skipCompleted).run(versions);
+    }
 
-        String safeVersion = version.replace("_", "__").replace(" ", "_");
+    void updateClone(Git git, String safeVersion, CredentialsProvider credentialsProvider) throws GitAPIException, IOException {
+        boolean remoteBranch = git.lsRemote()
+                .setRemote("origin")
+                .setHeads(true)
+                .setCredentialsProvider(credentialsProvider)
+                .call()
+                .stream()
+                .anyMatch(ref -> ref.getName().equals("refs/heads/" + safeVersion));
+        if (!remoteBranch) {
+            return;
+        }
+        git.fetch()
+                .setRemote("origin")
+                .setRefSpecs(new RefSpec("+refs/heads/" + safeVersion + ":refs/remotes/origin/" + safeVersion))
+                .setCredentialsProvider(credentialsProvider)
+                .setProgressMonitor(new TextProgressMonitor(new OutputStreamWriter(System.out)))
+                .call();
+        boolean localBranch = git.getRepository().exactRef("refs/heads/" + safeVersion) != null;
+        git.checkout()
+                .setName(safeVersion)
+                .setCreateBranch(!localBranch)
+                .setStartPoint("origin/" + safeVersion)
+                .setForce(true)
+                .call();
+        git.reset()
+                .setMode(ResetCommand.ResetType.HARD)
+                .setRef("origin/" + safeVersion)
+                .call();
+    }
 
-        // Create extract directories
-        System.out.println();
-        System.out.println();
-        log.info("Cleaning up old files...");
-        File extractBaseDirectory = new File("extract");
-        if (extractBaseDirectory.exists()) {
+    void downloadMappings(TreeSync sync, VersionJournal journal, String name, Download download) throws IOException {
+        String path = "mappings/" + name;
+        if (!sync.accepts(path)) {
+            return;
+        }
+        if (journal != null && journal.isFileDone(path, download.sha1()) && sync.file(path).length() == download.size()) {
+            sync.unchanged(path);
+            log.info("{} was already downloaded", name);
+            return;
+        }
+        if (sync.skipIfUpToDate(path, download.sha1(), null)) {
+            log.info("{} is up to date", name);
+            if (journal != null) {
+                journal.fileDone(path, download.sha1());
+            }
+            return;
+        }
+        if (isSegmented(download)) {
+            File tmp = Files.createTempFile("mcasset-mappings", "").toFile();
             try {
-                FileUtils.deleteDirectory(extractBaseDirectory);
+                downloadSegmented(download, tmp);
+                Files.move(tmp.toPath(), sync.file(path).toPath(), StandardCopyOption.REPLACE_EXISTING);
+                sync.written(path, download.sha1());
+                if (journal != null) {
+                    journal.fileDone(path, download.sha1());
+                }
+                return;
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                log.warn("Segmented download of {} failed, falling back to a single connection", name, e);
+            } finally {
+                tmp.delete();
             }
         }
-        extractBaseDirectory.mkdirs();
-        File extractDirectory = new File(extractBaseDirectory, safeVersion);
-        if (!extractDirectory.exists()) {
-            extractDirectory.mkdirs();
-        }
-
-        try {
-            // Init git
-            Git git = null;
-            CredentialsProvider credentialsProvider = null;
-            if (gitEnabled) {
-                log.info("Initializing Git as user {}...", gitEmail);
-                credentialsProvider = new UsernamePasswordCredentialsProvider(gitEmail, gitPassword);
-                log.info("Cloning repository, branch {}...", safeVersion);
-                git = Git.cloneRepository()
-                        .setURI(gitRepo)
-                        .setBranchesToClone(Arrays.asList("master", safeVersion))
-                        .setDirectory(extractDirectory)
-                        .setCredentialsProvider(credentialsProvider)
-                        .setProgressMonitor(new TextProgressMonitor(new OutputStreamWriter(System.out)))
-                        .call();
-                StoredConfig config = git.getRepository().getConfig();
-                config.setString("user", null, "email", gitEmail);
-                config.save();
-
-                // git checkout
-                Ref checkout = null;
+        ProgressCallback callback = new ProgressCallback() {
+            @Override
+            public void call(double now, double total) {
                 try {
-                    checkout = git.checkout().setName(safeVersion).call();
-                } catch (RefNotFoundException ignored) {
+                    String b = (Math.round(now * 100.0) / 100.0) + "MB/" + (Math.round(total * 100.0) / 100.0) + "MB";
+                    System.out.write(("\r" + name + " " + String.format("%-30s", b)).getBytes());
+                } catch (IOException e) {
+                    e.printStackTrace();
                 }
-                if (checkout == null) {
-                    checkout = git.branchCreate().setName(safeVersion).call();
-                    checkout = git.checkout().setName(safeVersion).call();
-                    git.commit()
-                            .setMessage("Create new branch for version " + safeVersion)
-                            .setCommitter("InventiveBot", gitEmail)
-                            .call();
-                }
-            } else {
-                log.info("Git is disabled");
             }
+        };
+        if (journal != null) {
+            downloadResumable(download.url(), journal.file(name + ".part"), sync.file(path), download.sha1(), callback);
+        } else {
+            downloadFileRetry(download.url(), sync.file(path), download.sha1(), callback);
+        }
+        sync.written(path, download.sha1());
+        if (journal != null) {
+            journal.fileDone(path, download.sha1());
+        }
+        System.out.println();
+    }
 
-            B2StorageClient b2Client = null;
-            if (!Strings.isBlank(this.b2App)) {
-                try {
-                    b2Client = B2StorageClientFactory.createDefaultFactory()
-                            .create(this.b2App, this.b2AppKey, "MCAssetDownloader");
-                } catch (Exception e) {
-                    log.log(Level.WARN, "", e);
-                }
-            } else {
-                log.info("B2 is disabled");
-            }
+    String downloadFileRetry(String inputUrl, File outputFile, String expectedSha1, ProgressCallback callback) throws IOException {
+        return downloadFileRetry(inputUrl, outputFile, expectedSha1, callback, null);
+    }
 
-            // delete any old data
-            try {
-                for (File file : extractDirectory.listFiles()) {
-                    if (file.getName().contains("git")) {
-                        continue;
-                    }
-                    if (file.isDirectory()) {
-                        FileUtils.deleteDirectory(file);
-                    } else {
-                        file.delete();
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+    /**
+     * Downloads the file, fetching it again with backoff (see {@link RetryPolicy}) if that fails or the content doesn't match the expected sha1
+     *
+     * @param limiter limits the requests in flight (may be null)
+     * @return the sha1 of the downloaded file
+     */
+    String downloadFileRetry(String inputUrl, File outputFile, String expectedSha1, ProgressCallback callback, AdaptiveLimiter limiter) throws IOException {
+        return retryPolicy.run(inputUrl, attempt -> {
+            if (limiter == null) {
+                return downloadFile(inputUrl, outputFile, expectedSha1, callback);
             }
+            return limiter.call(() -> downloadFile(inputUrl, outputFile, expectedSha1, callback));
+        });
+    }
 
-            //            if (gitEnabled) {
-            //                try {
-            //                    git.rm()
-            //                            .addFilepattern("assets")
-            //                            .addFilepattern("data")
-            //                            .addFilepattern("mappings")
-            //                            .addFilepattern(versionObject.getId() + ".json")
-            //                            .addFilepattern("version.json")
-            //                            .call();
-            //                } catch (Exception e) {
-            //                    e.printStackTrace();
-            //                }
-            //            }
-
-            // Write meta file
-            File versionMetaFile = new File(extractDirectory, "version.json");
-            versionMetaFile.createNewFile();
-            versionObject.setDownloadTimestamp(System.currentTimeMillis());
-            try (BufferedWriter writer = new BufferedWriter(new FileWriter(versionMetaFile))) {
-                new GsonBuilder().setPrettyPrinting().create()
-                        .toJson(versionObject, writer);
+    /**
+     * Downloads the file, hashing it on the way. Nothing is left behind if the download fails, is incomplete or the hash doesn't match.
+     *
+     * @param expectedSha1 sha1 to verify the content against (may be null)
+     * @return the sha1 of the downloaded file
+     */
+    String downloadFile(String inputUrl, File outputFile, String expectedSha1, ProgressCallback callback) throws IOException {
+        try (HttpTransport.Response response = http.get(inputUrl)) {
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(inputUrl, response);
             }
-
-            VersionAssetDetails versionDetails = new Gson().fromJson(new JsonParser().parse(readUrl(versionObject.url())), VersionAssetDetails.class);
-            downloadFile(versionObject.url(), new File(extractDirectory, versionObject.id() + ".json"), null);
-
-            AssetObjects assets = new Gson().fromJson(new JsonParser().parse(readUrl(versionDetails.assetIndex().url())), AssetObjects.class);
-
-            // Download
-            String jarDownload = versionDetails.downloads().client().url();
-            log.info("Downloading version " + version + " from " + jarDownload + "...");
-            File tempFile = Files.createTempFile("mcasset-downloader", "").toFile();
-            downloadFile(jarDownload, tempFile, null);
-            System.out.println();
-
-            // Extract assets
-            System.out.println("Extracting archive...");
-
-            try (ZipInputStream zipInputStream = new ZipInputStream(new BufferedInputStream(new FileInputStream(tempFile)))) {
-                ZipEntry zipEntry;
-
-                int count = 0;
-                int count1 = 0;
-                byte[] buffer = new byte[1024];
-
-                while ((zipEntry = zipInputStream.getNextEntry()) != null) {
-                    String name = zipEntry.getName();
-
-                    // Only extract what we care about
-                    if (!(name.startsWith("assets/") || name.startsWith("data/"))) {
-                        continue;
-                    }
-
-                    File extractFile = new File(extractDirectory, name);
-
-                    if (zipEntry.isDirectory()) {
-                        // Explicit directory entry (may or may not exist in newer jars)
-                        if (!extractFile.mkdirs() && !extractFile.isDirectory()) {
-                            log.warn("Failed to create directory {}", extractFile);
-                        }
-                        continue;
-                    }
-
-                    // Implicit directory handling
-                    File parent = extractFile.getParentFile();
-                    if (parent != null && !parent.mkdirs() && !parent.isDirectory()) {
-                        log.warn("Failed to create parent directories for {}", extractFile);
-                        continue;
+            MessageDigest digest = ObjectStore.newSha1();
+            long totalFileSize = response.contentLength();
+            long downloadedFileSize = 0;
+            double totalMb = totalFileSize / 1024.0D / 1024.0D;
+            ProgressCallback progress = ProgressCallback.throttled(callback != null ? callback : CONSOLE_PROGRESS);
+            try (InputStream input = new DigestInputStream(response.body(), digest)) {
+                // the file may be a hard link (blob store), which must not be written through
+                Files.deleteIfExists(outputFile.toPath());
+                try (OutputStream output = new FileOutputStream(outputFile)) {
+                    byte[] buffer = new byte[JarExtractor.BUFFER_SIZE];
+                    int length;
+                    while ((length = input.read(buffer)) > 0) {
+                        output.write(buffer, 0, length);
+                        downloadedFileSize += length;
+                        progress.call(downloadedFileSize / 1024.0D / 1024.0D, totalMb);
                     }
-
-                    try (FileOutputStream outputStream = new FileOutputStream(extractFile)) {
-                        int length;
-                        while ((length = zipInputStream.read(buffer)) > 0) {
-                            outputStream.write(buffer, 0, length);
-                        }
-                    } catch (Exception e) {
-                        log.error("Failed to extract {}", name, e);
-                        continue;
-                    }
-
-                    if (name.startsWith("assets/")) {
-                        System.out.write(("\rExtracted " + (count++) + " asset files " + name).getBytes());
-                    } else {
-                        System.out.write(("\rExtracted " + (count1++) + " data files " + name).getBytes());
-                    }
-                }
-            }
-            System.out.println();
-
-            // Delete temporary file
-            tempFile.delete();
-
-            // Download external assets
-            log.info("Downloading external assets...");
-
-            AtomicInteger count = new AtomicInteger();
-            for (Map.Entry<String, Asset> entry : assets.objects().entrySet()) {
-                String assetDownload = String.format(EXTERNAL_ASSET_FORMAT, entry.getValue().hash().substring(0, 2), entry.getValue().hash());
-                File assetOutput = new File(extractDirectory, "assets/" + entry.getKey());
-                new File(assetOutput.getParent()).mkdirs();
-                if (count.incrementAndGet() % 10 == 0) {
-                    Thread.sleep(200);
                 }
-                downloadFileRetry(assetDownload, assetOutput, new ProgressCallback() {
-                    @Override
-                    public void call(double now, double total) {
-                        try {
-                            String a = "Downloading asset " + (count.get()) + "/" + assets.objects().size();
-                            String b = (Math.round(now * 100.0) / 100.0) + "MB/" + (Math.round(total * 100.0) / 100.0) + "MB";
-                            System.out.write(("\r" + String.format("%-30s %s", a, b)).getBytes());
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
             }
-            System.out.println();
-
-            Downloads downloads = versionDetails.downloads();
-            if (downloads.clientMappings() != null && downloads.serverMappings() != null) {
-                // Download mappings
-                log.info("Downloading mappings...");
-                File mappingsOut = new File(extractDirectory, "mappings");
-                mappingsOut.mkdirs();
-
-                downloadFile(downloads.clientMappings().url(), new File(mappingsOut, "client.txt"), new ProgressCallback() {
-                    @Override
-                    public void call(double now, double total) {
-                        try {
-                            String b = (Math.round(now * 100.0) / 100.0) + "MB/" + (Math.round(total * 100.0) / 100.0) + "MB";
-                            System.out.write(("\rclient.txt " + String.format("%-30s", b)).getBytes());
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
-                System.out.println();
-                downloadFile(downloads.serverMappings().url(), new File(mappingsOut, "server.txt"), new ProgressCallback() {
-                    @Override
-                    public void call(double now, double total) {
-                        try {
-                            String b = (Math.round(now * 100.0) / 100.0) + "MB/" + (Math.round(total * 100.0) / 100.0) + "MB";
-                            System.out.write(("\rserver.txt " + String.format("%-30s", b)).getBytes());
-                        } catch (IOException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                });
+            if (totalFileSize >= 0 && downloadedFileSize != totalFileSize) {
+                throw new IOException("Download of " + inputUrl + " ended after " + downloadedFileSize + " of " + totalFileSize + " bytes");
             }
-            System.out.println();
-
-            createFileListAndAllFile(extractDirectory);
-
-            if (gitEnabled) {
-                log.info("Pushing changes to remote repo...");
-
-                git.add()
-                        .addFilepattern(".")
-                        .call();
-                RevCommit commit = git.commit()
-                        .setAll(true)
-                        .setAllowEmpty(true)
-                        .setMessage("Create/Update assets for version " + version)
-                        .setCommitter("InventiveBot", gitEmail)
-                        .call();
-                System.out.println(commit.getId() + "  " + commit.getShortMessage());
-                Ref ref = git.tag()
-                        .setObjectId(commit)
-                        .setName(safeVersion)
-                        .setForceUpdate(true)
-                        .call();
-                System.out.println(ref.getName());
-                Iterable<PushResult> result = git.push()
-                        .setRemote("origin")
-                        .setPushAll()
-                        .setPushTags()
-                        .setCredentialsProvider(credentialsProvider)
-                        .setProgressMonitor(new TextProgressMonitor(new OutputStreamWriter(System.out)))
-                        .call();
+            String sha1 = ObjectStore.hex(digest.digest());
+            if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(sha1)) {
+                throw new HashMismatchException(inputUrl, expectedSha1, sha1);
             }
-
-            if (b2Client != null) {
-                log.info("Uploading to b2...");
-
-                ExecutorService uploadExecutor = Executors.newFixedThreadPool(64);
-
-                B2StorageClient finalB2Client = b2Client;
-                List<Future<?>> futures = Files.walk(extractDirectory.toPath())
-                        .filter(Files::isRegularFile)
-                        .filter(p -> !p.toString().contains(".git"))
-                        .map(path -> {
-                            final File file = path.toFile();
-                            final String fullName = file.getPath().replaceFirst("extract/", "");
-                            try {
-                                if (file.length() > 5000000) {
-                                    return uploadExecutor.submit(() -> {
-                                        log.info("L" + fullName);
-                                        try {
-                                            finalB2Client.uploadLargeFile(B2UploadFileRequest
-                                                    .builder(this.b2Bucket, fullName, B2ContentTypes.B2_AUTO, B2FileContentSource
-                                                            .build(file)).build(), uploadExecutor);
-                                        } catch (Exception e) {
-                                            log.log(Level.WARN, "", e);
-                                        }
-                                    });
-                                } else {
-                                    return uploadExecutor.submit(() -> {
-                                        log.info("S" + fullName);
-                                        try {
-                                            finalB2Client.uploadSmallFile(B2UploadFileRequest
-                                                    .builder(this.b2Bucket, fullName, B2ContentTypes.B2_AUTO, B2FileContentSource
-                                                            .build(file)).build());
-                                        } catch (Exception e) {
-                                            log.log(Level.WARN, "", e);
-                                        }
-                                    });
-                                }
-                            } catch (Exception e) {
-                                log.log(Level.WARN, "", e);
-                            }
-                            return CompletableFuture.completedFuture(null);
-                        }).collect(Collectors.toList());
-
-                System.out.println("Waiting for uploads...");
-                for (Future<?> future : futures) {
-                    future.get(10, TimeUnit.MINUTES);
-                }
-                System.out.println("Waiting for upload executor...");
-                uploadExecutor.shutdown();
-                boolean b = uploadExecutor.awaitTermination(60, TimeUnit.MINUTES);
-                System.out.println(b);
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            return sha1;
+        } catch (IOException e) {
+            outputFile.delete();
+            throw e;
         }
-        System.out.println();
+    }
 
-        System.out.println("Finished downloading " + version);
+    boolean isSegmented(Download download) {
+        return downloadSegments > 1 && download.size() >= downloadSegmentThreshold;
     }
 
-    void createFileListAndAllFile(File directory) {
-        if (!directory.isDirectory()) {
-            return;
-        }
-        JsonArray fileNames = Arrays.stream(Objects.requireNonNull(directory.listFiles()))
-                .filter(File::isFile)
-                .map(File::getName)
-                .sorted()
-                .collect(JsonArray::new, JsonArray::add, JsonArray::add);
-        JsonArray directoryNames = Arrays.stream(Objects.requireNonNull(directory.listFiles()))
-                .filter(File::isDirectory)
-                .map(File::getName)
-                .filter(s -> !".git".equals(s))
-                .sorted()
-                .collect(JsonArray::new, JsonArray::add, JsonArray::add);
-        JsonObject listJson = new JsonObject();
-        listJson.add("directories", directoryNames);
-        listJson.add("files", fileNames);
-        File listFile = new File(directory, "_list.json");
-        Gson gson = new Gson();
+    /**
+     * Downloads a large file as several ranges at once, verified against its sha1 once complete
+     */
+    void downloadSegmented(Download download, File outputFile) throws IOException {
+        log.info("Downloading {} in {} segments", download.url(), downloadSegments);
         try {
-            listFile.createNewFile();
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(listFile), StandardCharsets.UTF_8))) {
-                gson.toJson(listJson, writer);
+            new SegmentedDownload(http, retryPolicy, downloadSegments).download(download.url(), download.size(), outputFile);
+            String sha1 = ObjectStore.sha1(outputFile);
+            if (download.sha1() != null && !download.sha1().equalsIgnoreCase(sha1)) {
+                throw new HashMismatchException(download.url(), download.sha1(), sha1);
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            outputFile.delete();
+            throw e;
         }
+    }
 
-        JsonObject allObject = new JsonObject();
-        Arrays.stream(Objects.requireNonNull(directory.listFiles()))
-                .filter(File::isFile)
-                .filter(f -> f.getName().endsWith(".json") && !"_list.json".equals(f.getName()))
-                .sorted(Comparator.comparing(File::getName))
-                .forEach(file -> {
-                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
-                        JsonElement obj = gson.fromJson(reader, JsonElement.class);
-                        allObject.add(file.getName().replace(".json", ""), obj);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                });
-        if (!allObject.keySet().isEmpty()) {
-            File allFile = new File(directory, "_all.json");
+    /**
+     * Downloads into the part file, continuing with a Range request where an earlier attempt left off, and moves it to the output file once complete
+     */
+    void downloadResumable(String inputUrl, File partFile, File outputFile, String expectedSha1, ProgressCallback callback) throws IOException {
+        retryPolicy.run(inputUrl, attempt -> {
             try {
-                allFile.createNewFile();
-                try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(allFile), StandardCharsets.UTF_8))) {
-                    gson.toJson(allObject, writer);
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                resume(inputUrl, partFile, outputFile, expectedSha1, callback);
+            } catch (HashMismatchException e) {
+                // whatever was resumed is broken, start over; anything else picks up where it broke off
+                partFile.delete();
+                throw e;
             }
-        }
-
-        Arrays.stream(Objects.requireNonNull(directory.listFiles()))
-                .filter(File::isDirectory)
-                .forEach(this::createFileListAndAllFile);
+            return null;
+        });
     }
 
-    void downloadFileRetry(String inputUrl, File outputFile, ProgressCallback callback) throws IOException {
-        try {
-            downloadFile(inputUrl, outputFile, callback);
-        } catch (Exception e) {
-            e.printStackTrace();
-            try {
-                Thread.sleep(5000);
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
+    private void resume(String inputUrl, File partFile, File outputFile, String expectedSha1, ProgressCallback callback) throws IOException {
+        long offset = partFile.isFile() ? partFile.length() : 0;
+        // the bytes we already have are hashed once, the rest while it arrives
+        MessageDigest digest = ObjectStore.newSha1();
+        Map<String, String> headers = offset > 0 ? Map.of("Range", "bytes=" + offset + "-") : Map.of();
+        try (HttpTransport.Response response = http.get(inputUrl, headers)) {
+            boolean append;
+            if (response.statusCode() == 206) {
+                log.info("Resuming {} at {} bytes", inputUrl, offset);
+                append = true;
+            } else if (response.statusCode() == 416 && ("bytes */" + offset).equals(response.header("Content-Range"))) {
+                // the part file is already complete
+                append = true;
+            } else if (response.isSuccessful()) {
+                append = false;
+                offset = 0;
+            } else {
+                throw new HttpStatusException(inputUrl, response);
             }
-            downloadFile(inputUrl, outputFile, callback);
-        }
-    }
 
-    void downloadFile(String inputUrl, File outputFile, ProgressCallback callback) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) new URL(inputUrl).openConnection();
-        long totalFileSize = connection.getContentLength();
-        long downloadedFileSize = 0;
-        double totalMb = totalFileSize / 1024.0D / 1024.0D;
-        try (BufferedInputStream input = new BufferedInputStream(connection.getInputStream())) {
-            try (BufferedOutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile))) {
-                byte[] buffer = new byte[1024];
+            if (append) {
+                try (InputStream input = new FileInputStream(partFile)) {
+                    input.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+                }
+            }
+            boolean complete = response.statusCode() == 416;
+            long totalFileSize = complete ? offset : response.contentLength() >= 0 ? offset + response.contentLength() : -1;
+            long downloadedFileSize = offset;
+            double totalMb = totalFileSize / 1024.0D / 1024.0D;
+            ProgressCallback progress = ProgressCallback.throttled(callback != null ? callback : CONSOLE_PROGRESS);
+            try (InputStream input = complete ? InputStream.nullInputStream() : new DigestInputStream(response.body(), digest);
+                 OutputStream output = new BufferedOutputStream(new FileOutputStream(partFile, append))) {
+                byte[] buffer = new byte[JarExtractor.BUFFER_SIZE];
                 int length;
-                while ((length = input.read(buffer, 0, 1024)) > 0) {
+                while ((length = input.read(buffer)) > 0) {
                     output.write(buffer, 0, length);
                     downloadedFileSize += length;
-
-                    double downloadedMb = (double) downloadedFileSize / 1024.0D / 1024.0D;
-                    if (callback != null) {
-                        callback.call(downloadedMb, totalMb);
-                    } else {
-                        System.out.write(("\rDownloaded " + (Math.round(downloadedMb * 100.0) / 100.0) + "MB/" + (Math.round(totalMb * 100.0) / 100.0) + "MB").getBytes());
-                    }
+                    progress.call(downloadedFileSize / 1024.0D / 1024.0D, totalMb);
                 }
             }
-        } catch (IOException e) {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getErrorStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    System.out.println(line);
-                }
+            if (totalFileSize >= 0 && downloadedFileSize != totalFileSize) {
+                throw new IOException("Download of " + inputUrl + " ended after " + downloadedFileSize + " of " + totalFileSize + " bytes");
             }
         }
+        String sha1 = ObjectStore.hex(digest.digest());
+        if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(sha1)) {
+            throw new HashMismatchException(inputUrl, expectedSha1, sha1);
+        }
+        Files.move(partFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
     }
 
-    String readUrl(String urlString) {
-        String string = "";
-        try {
-            URL url = new URL(urlString);
-            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    string += line;
-                }
-            }
+    /**
+     * Parses the (cached) document straight from the stream, without building the whole document first
+     */
+    <T> T readJson(String urlString, String sha1, Class<T> type) {
+        try (JsonReader reader = new JsonReader(new InputStreamReader(metadataCache.open(urlString, sha1), StandardCharsets.UTF_8))) {
+            return GSON.fromJson(reader, type);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        return string;
+    }
+
+    AssetIndexReader openAssetIndex(AssetIndex assetIndex) throws IOException {
+        return new AssetIndexReader(metadataCache.open(assetIndex.url(), assetIndex.sha1()));
     }
 
 }
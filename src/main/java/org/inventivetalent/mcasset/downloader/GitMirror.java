@@ -0,0 +1,165 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.ResetCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persistent bare mirror of the assets repository.
+ * Only the branches a run needs are fetched into it, and work trees borrow its objects (via objects/info/alternates)
+ * instead of cloning the whole repository for every version.
+ */
+public class GitMirror {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(GitMirror.class);
+
+    private final File directory;
+    private final String remote;
+
+    public GitMirror(File directory, String remote) {
+        this.directory = directory;
+        this.remote = remote;
+    }
+
+    private Git openMirror() throws GitAPIException, IOException {
+        if (!new File(directory, "objects").isDirectory()) {
+            log.info("Creating git mirror in {}", directory);
+            Git.init().setBare(true).setDirectory(directory).call().close();
+        }
+        Git mirror = Git.open(directory);
+        StoredConfig config = mirror.getRepository().getConfig();
+        config.setString("remote", "origin", "url", remote);
+        config.save();
+        return mirror;
+    }
+
+    /**
+     * Fetches master and the branch (if it exists on the remote) into the mirror
+     *
+     * @return whether the branch exists on the remote
+     */
+    public synchronized boolean fetch(String branch, CredentialsProvider credentialsProvider) throws GitAPIException, IOException {
+        try (Git mirror = openMirror()) {
+            List<String> heads = new ArrayList<>();
+            for (Ref ref : mirror.lsRemote().setRemote("origin").setHeads(true).setCredentialsProvider(credentialsProvider).call()) {
+                heads.add(ref.getName());
+            }
+            boolean remoteBranch = heads.contains("refs/heads/" + branch);
+
+            List<RefSpec> refSpecs = new ArrayList<>();
+            if (heads.contains("refs/heads/master")) {
+                refSpecs.add(new RefSpec("+refs/heads/master:refs/heads/master"));
+            }
+            if (remoteBranch) {
+                refSpecs.add(new RefSpec("+refs/heads/" + branch + ":refs/heads/" + branch));
+            }
+            if (!refSpecs.isEmpty()) {
+                log.info("Fetching {} into mirror...", refSpecs);
+                mirror.fetch()
+                        .setRemote("origin")
+                        .setRefSpecs(refSpecs)
+                        .setCredentialsProvider(credentialsProvider)
+                        .setProgressMonitor(new TextProgressMonitor(new OutputStreamWriter(System.out)))
+                        .call();
+            }
+            return remoteBranch;
+        }
+    }
+
+    /**
+     * Opens (or creates) a work repository that borrows the mirror's objects, with its origin refs pointing at the mirror's branches
+     */
+    public Git open(File workDirectory) throws GitAPIException, IOException {
+        File gitDirectory = new File(workDirectory, ".git");
+        if (!gitDirectory.isDirectory()) {
+            Git.init().setDirectory(workDirectory).call().close();
+        }
+        File alternates = new File(gitDirectory, "objects/info/alternates");
+        alternates.getParentFile().mkdirs();
+        Files.write(alternates.toPath(), (new File(directory, "objects").getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+
+        Git git = Git.open(workDirectory);
+        StoredConfig config = git.getRepository().getConfig();
+        config.setString("remote", "origin", "url", remote);
+        config.setString("remote", "origin", "fetch", "+refs/heads/*:refs/remotes/origin/*");
+        config.save();
+
+        synchronized (this) {
+            try (Git mirror = Git.open(directory)) {
+                for (Ref ref : mirror.getRepository().getRefDatabase().getRefsByPrefix(Constants.R_HEADS)) {
+                    setRef(git.getRepository(), Constants.R_REMOTES + "origin/" + ref.getName().substring(Constants.R_HEADS.length()), ref.getObjectId());
+                }
+            }
+        }
+        return git;
+    }
+
+    /**
+     * Copies what was just pushed to the remote into the mirror as well, so the next fetch doesn't download it again
+     */
+    public synchronized void storePushed(Git git, String branch) throws GitAPIException {
+        git.push()
+                .setRemote(directory.getAbsoluteFile().toURI().toString())
+                .setRefSpecs(new RefSpec("+refs/heads/" + branch + ":refs/heads/" + branch))
+                .call();
+    }
+
+    /**
+     * Checks out the branch in a work repository created by {@link #open(File)}, branching off master if it doesn't exist yet
+     *
+     * @return whether the branch had to be created
+     */
+    public boolean checkout(Git git, String branch, boolean remoteBranch) throws GitAPIException, IOException {
+        boolean localBranch = git.getRepository().exactRef("refs/heads/" + branch) != null;
+        if (remoteBranch) {
+            git.checkout()
+                    .setName(branch)
+                    .setCreateBranch(!localBranch)
+                    .setStartPoint("origin/" + branch)
+                    .setForce(true)
+                    .call();
+            git.reset()
+                    .setMode(ResetCommand.ResetType.HARD)
+                    .setRef("origin/" + branch)
+                    .call();
+            return false;
+        }
+        if (localBranch) {
+            git.checkout().setName(branch).setForce(true).call();
+            return false;
+        }
+        git.checkout()
+                .setName(branch)
+                .setCreateBranch(true)
+                .setStartPoint("origin/master")
+                .setForce(true)
+                .call();
+        return true;
+    }
+
+    private static void setRef(Repository repository, String name, ObjectId objectId) throws IOException {
+        RefUpdate update = repository.updateRef(name);
+        update.setNewObjectId(objectId);
+        update.setForceUpdate(true);
+        update.update();
+    }
+
+}
@@ -0,0 +1,16 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.IOException;
+
+/**
+ * Downloaded content didn't match the sha1 the metadata announced
+ */
+public class HashMismatchException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public HashMismatchException(String url, String expected, String actual) {
+        super("sha1 mismatch for " + url + ": expected " + expected + ", got " + actual);
+    }
+
+}
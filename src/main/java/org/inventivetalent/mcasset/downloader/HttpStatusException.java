@@ -0,0 +1,59 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Server answered with an unexpected status, with how long it asked us to wait (Retry-After) if it did
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final long retryAfterMillis;
+
+    public HttpStatusException(String url, HttpTransport.Response response) {
+        super("HTTP " + response.statusCode() + " for " + url);
+        this.statusCode = response.statusCode();
+        this.retryAfterMillis = parseRetryAfter(response.header("Retry-After"));
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return milliseconds the server asked us to wait, or 0 if it didn't say
+     */
+    public long retryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * @return whether the server is telling us to back off (429 or 5xx), rather than that the request itself is wrong
+     */
+    public boolean isOverload() {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    static long parseRetryAfter(String value) {
+        if (value == null || value.isBlank()) {
+            return 0;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return Math.max(0, Duration.between(ZonedDateTime.now(), ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME)).toMillis());
+        } catch (DateTimeParseException ignored) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared HTTP client with per-host connection pooling and keep-alive, used for all downloads
+ */
+public class HttpTransport implements Closeable {
+
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient client;
+    private final Metrics metrics;
+
+    public HttpTransport(int connectTimeout, int readTimeout, int maxConnections, int maxPerHost, Metrics metrics) {
+        this.metrics = metrics;
+        this.connectionManager = new PoolingHttpClientConnectionManager(60, TimeUnit.SECONDS);
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxPerHost);
+        this.connectionManager.setValidateAfterInactivity(2000);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(readTimeout)
+                .build();
+        this.client = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setUserAgent("MCAssetDownloader")
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+        metrics.setPool(this::totalStats);
+    }
+
+    public Response get(String url) throws IOException {
+        return get(url, Collections.emptyMap());
+    }
+
+    public Response get(String url, Map<String, String> headers) throws IOException {
+        HttpGet request = new HttpGet(url);
+        headers.forEach(request::setHeader);
+        long start = System.nanoTime();
+        CloseableHttpResponse response = client.execute(request);
+        metrics.request((System.nanoTime() - start) / 1000000);
+        return new Response(response, metrics);
+    }
+
+    /**
+     * Connection pool usage, in total and per host
+     */
+    public String stats() {
+        PoolStats total = connectionManager.getTotalStats();
+        StringBuilder builder = new StringBuilder(format(total));
+        Map<String, PoolStats> routes = new TreeMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            routes.put(route.getTargetHost().toHostString(), connectionManager.getStats(route));
+        }
+        routes.forEach((host, stats) -> builder.append(", ").append(host).append(" ").append(format(stats)));
+        return builder.toString();
+    }
+
+    public PoolStats totalStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    private static String format(PoolStats stats) {
+        return "[leased: " + stats.getLeased() + ", available: " + stats.getAvailable() + ", pending: " + stats.getPending() + ", max: " + stats.getMax() + "]";
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close();
+    }
+
+    public static class Response implements Closeable {
+
+        private final CloseableHttpResponse response;
+        private final Metrics metrics;
+
+        Response(CloseableHttpResponse response, Metrics metrics) {
+            this.response = response;
+            this.metrics = metrics;
+        }
+
+        public int statusCode() {
+            return response.getStatusLine().getStatusCode();
+        }
+
+        public boolean isSuccessful() {
+            return statusCode() >= 200 && statusCode() < 300;
+        }
+
+        public long contentLength() {
+            HttpEntity entity = response.getEntity();
+            return entity != null ? entity.getContentLength() : -1;
+        }
+
+        public String header(String name) {
+            Header header = response.getFirstHeader(name);
+            return header != null ? header.getValue() : null;
+        }
+
+        public InputStream body() throws IOException {
+            HttpEntity entity = response.getEntity();
+            if (entity == null) {
+                return InputStream.nullInputStream();
+            }
+            return new FilterInputStream(entity.getContent()) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b >= 0) {
+                        metrics.received(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    int read = super.read(buffer, offset, length);
+                    if (read > 0) {
+                        metrics.received(read);
+                    }
+                    return read;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            // The connection is already back in the pool if the body was read to the end, otherwise it is discarded
+            response.close();
+        }
+    }
+
+}
@@ -0,0 +1,222 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Writes the _list.json (directory listing) and _all.json (all .json files of a directory in one object) index files
+ * for every directory of the tree, from the paths the run produced instead of listing and re-parsing the directories.
+ */
+public class IndexGenerator {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(IndexGenerator.class);
+    private static final Gson GSON = new Gson();
+
+    private final TreeSync sync;
+    private final int threads;
+
+    public IndexGenerator(TreeSync sync, int threads) {
+        this.sync = sync;
+        this.threads = Math.max(1, threads);
+    }
+
+    public void generate() throws IOException {
+        Node root = new Node("");
+        for (String path : sync.paths()) {
+            if (!TreeSync.isIndexFile(path.substring(path.lastIndexOf('/') + 1))) {
+                root.add(path);
+            }
+        }
+        // top-level git files are kept from the checkout rather than produced by the run
+        for (File file : Objects.requireNonNull(sync.root().listFiles())) {
+            if (file.isFile() && file.getName().contains("git")) {
+                root.files.add(file.getName());
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new IndexTask(root));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    void writeIndex(Node node) throws IOException {
+        String prefix = node.path.isEmpty() ? "" : node.path + "/";
+
+        ByteArrayOutputStream listBytes = new ByteArrayOutputStream();
+        try (JsonWriter writer = newWriter(listBytes)) {
+            writer.beginObject();
+            writer.name("directories").beginArray();
+            for (String directory : node.directories.keySet()) {
+                writer.value(directory);
+            }
+            writer.endArray();
+            writer.name("files").beginArray();
+            for (String file : node.files) {
+                writer.value(file);
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        sync.write(prefix + "_list.json", listBytes.toByteArray());
+
+        // the files' JSON is copied as-is instead of being parsed and serialized again, straight into the file
+        String allPath = prefix + "_all.json";
+        if (node.files.stream().noneMatch(file -> file.endsWith(".json"))) {
+            if (sync.file(allPath).exists()) {
+                sync.delete(allPath);
+            }
+            return;
+        }
+        File allTmp = sync.file(allPath + ".tmp");
+        boolean any = false;
+        try (JsonWriter writer = newWriter(new BufferedOutputStream(new FileOutputStream(allTmp), JarExtractor.BUFFER_SIZE))) {
+            writer.beginObject();
+            for (String file : node.files) {
+                if (!file.endsWith(".json")) {
+                    continue;
+                }
+                String path = prefix + file;
+                String json = rawJson(Files.readAllBytes(sync.file(path).toPath()));
+                if (json.isEmpty()) {
+                    continue;
+                }
+                // content that matched the sha1 it was published with is used as it is
+                if (sync.verifiedSha1(path) == null) {
+                    json = validJson(json);
+                }
+                if (json == null) {
+                    log.warn("Leaving invalid JSON file {} out of {}", path, allPath);
+                    continue;
+                }
+                writer.name(file.replace(".json", "")).jsonValue(json);
+                any = true;
+            }
+            writer.endObject();
+        }
+        if (any) {
+            sync.replace(allPath, allTmp);
+        } else {
+            Files.delete(allTmp.toPath());
+            if (sync.file(allPath).exists()) {
+                sync.delete(allPath);
+            }
+        }
+    }
+
+    private static JsonWriter newWriter(OutputStream out) {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        // same escaping as Gson#toJson
+        writer.setHtmlSafe(true);
+        return writer;
+    }
+
+    private static String rawJson(byte[] bytes) {
+        String json = new String(bytes, StandardCharsets.UTF_8);
+        if (json.startsWith("\uFEFF")) {
+            json = json.substring(1);
+        }
+        return json.trim();
+    }
+
+    /**
+     * Files are spliced into _all.json as they are, so they have to be checked first: strictly valid JSON is used as-is,
+     * what only Gson's lenient parsing accepts is re-serialized, and anything else is skipped
+     *
+     * @return the JSON to splice in, or null if the file isn't valid JSON
+     */
+    static String validJson(String json) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(json));
+            reader.skipValue();
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return json;
+            }
+        } catch (IOException | IllegalStateException ignored) {
+        }
+        try {
+            JsonElement element = JsonParser.parseString(json);
+            return element.isJsonNull() ? null : GSON.toJson(element);
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    static class Node {
+        final String path;
+        final Map<String, Node> directories = new TreeMap<>();
+        final SortedSet<String> files = new TreeSet<>();
+
+        Node(String path) {
+            this.path = path;
+        }
+
+        void add(String relativePath) {
+            Node node = this;
+            String[] parts = relativePath.split("/");
+            for (int i = 0; i < parts.length - 1; i++) {
+                String name = parts[i];
+                String parentPath = node.path;
+                node = node.directories.computeIfAbsent(name, n -> new Node(parentPath.isEmpty() ? n : parentPath + "/" + n));
+            }
+            node.files.add(parts[parts.length - 1]);
+        }
+    }
+
+    class IndexTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Node node;
+
+        IndexTask(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        protected void compute() {
+            List<IndexTask> children = new ArrayList<>(node.directories.size());
+            for (Node child : node.directories.values()) {
+                children.add(new IndexTask(child));
+            }
+            invokeAll(children);
+            try {
+                writeIndex(node);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,229 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts the assets/ and data/ entries of a client jar
+ */
+public class JarExtractor {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(JarExtractor.class);
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TreeSync sync;
+    private final int threads;
+    private List<ZipDirectory.Entry> streamedEntries;
+
+    public JarExtractor(TreeSync sync) {
+        this(sync, Runtime.getRuntime().availableProcessors());
+    }
+
+    public JarExtractor(TreeSync sync, int threads) {
+        this.sync = sync;
+        this.threads = Math.max(1, threads);
+    }
+
+    boolean shouldExtract(String name) {
+        // Only extract what we care about
+        return (name.startsWith("assets/") || name.startsWith("data/")) && sync.accepts(name);
+    }
+
+    /**
+     * Extracts entries as they arrive on the stream, e.g. straight off an HTTP response
+     *
+     * @param expectedLength length of the whole archive if known (or -1), used to detect a stream that ended early
+     * @param expectedSha1   sha1 of the whole archive if known (or null), checked once the stream was read to the end
+     */
+    public void extract(InputStream inputStream, long expectedLength, String expectedSha1) throws IOException {
+        MessageDigest digest = ObjectStore.newSha1();
+        CountingInputStream counting = new CountingInputStream(new BufferedInputStream(new DigestInputStream(inputStream, digest), BUFFER_SIZE));
+        try (ZipInputStream zipInputStream = new ZipInputStream(counting)) {
+            ZipEntry zipEntry;
+            // their size and CRC are only complete once the next entry was reached
+            List<ZipEntry> seen = new ArrayList<>();
+
+            int count = 0;
+            int count1 = 0;
+            long lastProgress = 0;
+
+            while ((zipEntry = zipInputStream.getNextEntry()) != null) {
+                String name = zipEntry.getName();
+                if (!zipEntry.isDirectory() && (name.startsWith("assets/") || name.startsWith("data/"))) {
+                    seen.add(zipEntry);
+                }
+
+                if (!shouldExtract(name)) {
+                    continue;
+                }
+
+                if (!extractEntry(zipEntry, zipInputStream)) {
+                    continue;
+                }
+
+                if (name.startsWith("assets/")) {
+                    count++;
+                } else {
+                    count1++;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastProgress >= ProgressCallback.INTERVAL_MILLIS) {
+                    lastProgress = now;
+                    System.out.write(("\rExtracted " + count + " asset files and " + count1 + " data files " + name).getBytes());
+                }
+            }
+
+            // ZipInputStream stops at the central directory, and also if the stream happens to end right between two entries,
+            // so read the rest to make sure we actually got everything
+            counting.transferTo(OutputStream.nullOutputStream());
+            if (expectedLength >= 0 && counting.count != expectedLength) {
+                throw new IOException("Archive stream ended after " + counting.count + " of " + expectedLength + " bytes");
+            }
+            String sha1 = ObjectStore.hex(digest.digest());
+            if (expectedSha1 != null && !expectedSha1.equalsIgnoreCase(sha1)) {
+                throw new HashMismatchException("archive stream", expectedSha1, sha1);
+            }
+            streamedEntries = seen.stream()
+                    .map(entry -> new ZipDirectory.Entry(entry.getName(), entry.getCrc(), entry.getSize()))
+                    .collect(Collectors.toList());
+            log.info("Extracted {} asset files and {} data files", count, count1);
+        }
+    }
+
+    /**
+     * @return the assets/ and data/ entries (including filtered ones) of the archive the last {@link #extract(InputStream, long, String)}
+     * read completely, or null
+     */
+    public List<ZipDirectory.Entry> streamedEntries() {
+        return streamedEntries;
+    }
+
+    /**
+     * Extracts a downloaded jar, inflating and writing the entries on a pool of workers
+     */
+    public void extract(File jarFile) throws IOException {
+        try (ZipFile zipFile = new ZipFile(jarFile)) {
+            List<? extends ZipEntry> entries = zipFile.stream()
+                    .filter(entry -> shouldExtract(entry.getName()))
+                    .collect(Collectors.toList());
+
+            AtomicInteger assetCount = new AtomicInteger();
+            AtomicInteger dataCount = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>(entries.size());
+                for (ZipEntry entry : entries) {
+                    futures.add(executor.submit(() -> {
+                        try (InputStream inputStream = zipFile.getInputStream(entry)) {
+                            if (extractEntry(entry, inputStream) && !entry.isDirectory()) {
+                                (entry.getName().startsWith("assets/") ? assetCount : dataCount).incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+            log.info("Extracted {} asset files and {} data files", assetCount.get(), dataCount.get());
+        }
+    }
+
+    /**
+     * Errors reading the archive are passed on (the source broke), errors writing the file are logged
+     *
+     * @return whether a file was extracted
+     */
+    boolean extractEntry(ZipEntry entry, InputStream inputStream) throws IOException {
+        String name = entry.getName();
+        File extractFile = sync.file(name);
+        if (entry.isDirectory()) {
+            // Explicit directory entry (may or may not exist in newer jars)
+            if (!sync.mkdirs(extractFile)) {
+                log.warn("Failed to create directory {}", extractFile);
+            }
+            return false;
+        }
+
+        // Implicit directory handling
+        File parent = extractFile.getParentFile();
+        if (parent != null && !sync.mkdirs(parent)) {
+            log.warn("Failed to create parent directories for {}", extractFile);
+            return false;
+        }
+
+        long size = entry.getSize();
+        byte[] content = size >= 0 && size <= Integer.MAX_VALUE ? inputStream.readNBytes((int) size) : inputStream.readAllBytes();
+        try {
+            sync.write(name, content);
+        } catch (IOException e) {
+            log.error("Failed to extract {}", name, e);
+            return false;
+        }
+        return true;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+    }
+
+}
@@ -2,6 +2,9 @@ package org.inventivetalent.mcasset.downloader;
 
 import org.apache.commons.cli.*;
 
+import java.io.File;
+import java.io.IOException;
+
 public class Main {
 
 	public static void main(String[] args) {
@@ -9,9 +12,36 @@ public class Main {
 
 		Option version = new Option("v", "version", true, "Version to download\n"
 				+ "Special versions: latest, latest-release, latest-snapshot, all-releases, all-snapshots");
-		version.setRequired(true);
 		options.addOption(version);
 
+		Option watch = new Option("w", "watch", false, "Keep running and publish new or changed versions as they appear in the manifest\n"
+				+ "(after downloading --version, if given)");
+		options.addOption(watch);
+
+		Option serve = new Option("s", "serve", false, "Serve the extracted versions over HTTP (see serve.* in the config)");
+		options.addOption(serve);
+
+		Option include = new Option("i", "include", true, "Only keep files matching these globs (comma-separated, e.g. assets/minecraft/textures,data/*/recipe)");
+		// split by Downloader.setPathFilter, which keeps {a,b} alternatives together
+		include.setArgs(Option.UNLIMITED_VALUES);
+		options.addOption(include);
+
+		Option exclude = new Option("x", "exclude", true, "Drop files matching these globs (comma-separated, e.g. **/*.ogg)");
+		exclude.setArgs(Option.UNLIMITED_VALUES);
+		options.addOption(exclude);
+
+		Option diff = new Option(null, "diff", true, "Write the paths added, removed and changed between two versions as JSON, e.g. --diff 1.20.1 1.20.2\n"
+				+ "(versions that weren't processed are read from their jar's central directory, nothing is extracted)");
+		diff.setArgs(2);
+		diff.setArgName("from> <to");
+		options.addOption(diff);
+
+		Option output = new Option("o", "output", true, "File to write the --diff to (stdout by default)");
+		options.addOption(output);
+
+		Option gcBlobs = new Option(null, "gc-blobs", false, "Delete blobs no version tree links to any more");
+		options.addOption(gcBlobs);
+
 		Option disableGit = new Option("G", "disable-git", false, "Whether to disable git push");
 		options.addOption(disableGit);
 
@@ -19,6 +49,9 @@ public class Main {
 		CommandLine cmd;
 		try {
 			cmd=parser.parse(options, args);
+			if (!cmd.hasOption("version") && !cmd.hasOption("watch") && !cmd.hasOption("serve") && !cmd.hasOption("gc-blobs") && !cmd.hasOption("diff")) {
+				throw new ParseException("Missing option: version, watch, serve, diff or gc-blobs");
+			}
 		} catch (ParseException e) {
 			System.out.println(e.getMessage());
 			new HelpFormatter().printHelp("downloader.jar", options);
@@ -32,9 +65,53 @@ public class Main {
 		if (cmd.hasOption("disable-git")) {
 			downloader.setGitEnabled(false);
 		}
+		if (cmd.hasOption("include") || cmd.hasOption("exclude")) {
+			downloader.setPathFilter(cmd.getOptionValues("include"), cmd.getOptionValues("exclude"));
+		}
 
+		downloader.initMetrics();
+		downloader.initObjectStore();
+		downloader.initGitMirror();
 		downloader.initVersions();
-		downloader.downloadVersion(cmd.getOptionValue("version"));
+		if (cmd.hasOption("serve")) {
+			try {
+				downloader.createServer().start();
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+		}
+
+		if (cmd.hasOption("version")) {
+			try {
+				downloader.downloadVersion(cmd.getOptionValue("version"));
+			} finally {
+				downloader.writeMetricsReport();
+			}
+		}
+
+		if (cmd.hasOption("diff")) {
+			String[] versions = cmd.getOptionValues("diff");
+			downloader.diff(versions[0], versions[1], cmd.hasOption("output") ? new File(cmd.getOptionValue("output")) : null);
+		}
+
+		if (cmd.hasOption("gc-blobs")) {
+			downloader.gcBlobs();
+		}
+
+		if (cmd.hasOption("watch")) {
+			VersionWatcher watcher = downloader.createWatcher();
+			Runtime.getRuntime().addShutdownHook(new Thread(watcher::stop, "watch-shutdown"));
+			watcher.run();
+			// stopped by the shutdown hook, the JVM is already exiting
+			return;
+		}
+		if (cmd.hasOption("serve")) {
+			try {
+				Thread.currentThread().join();
+			} catch (InterruptedException ignored) {
+			}
+			return;
+		}
 
 		System.out.println("Done!");
 		System.exit(0);
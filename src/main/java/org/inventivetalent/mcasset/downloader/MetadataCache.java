@@ -0,0 +1,355 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.Gson;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache for the version manifest, version JSONs and asset indexes.
+ * Documents with a known sha1 are stored under that hash and never fetched again, everything else is revalidated with
+ * If-None-Match/If-Modified-Since. Either way each document is requested at most once per run.
+ */
+public class MetadataCache {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(MetadataCache.class);
+
+    private final Downloader downloader;
+    private final File directory;
+
+    // url -> cached file, for everything already fetched or revalidated (or currently being fetched) by this run
+    private final Map<String, CompletableFuture<File>> fetched = new ConcurrentHashMap<>();
+
+    public MetadataCache(Downloader downloader, File directory) {
+        this.downloader = downloader;
+        this.directory = directory;
+    }
+
+    /**
+     * @param sha1 expected hash of the document, or null if it isn't known
+     * @return the cached file with the current document
+     */
+    public File get(String url, String sha1) throws IOException {
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> existing = fetched.putIfAbsent(url, future);
+        if (existing != null) {
+            // someone else is already fetching it, wait for them instead of blocking the map while the request runs
+            return await(existing);
+        }
+        try {
+            File file = sha1 != null ? getHashed(url, sha1) : getRevalidated(url);
+            future.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            // failures aren't cached, the next call tries again
+            fetched.remove(url, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets that the document was already fetched by this run, so the next {@link #get} revalidates it
+     */
+    public void invalidate(String url) {
+        fetched.remove(url);
+    }
+
+    public byte[] read(String url, String sha1) throws IOException {
+        return Files.readAllBytes(get(url, sha1).toPath());
+    }
+
+    /**
+     * Opens the document for reading. A document with a known sha1 that isn't cached yet is streamed straight off the response
+     * (and written to the cache on the way), so the caller can start working before it was downloaded completely.
+     * Unlike {@link #get}, a connection that breaks mid-way isn't retried, the stream fails instead.
+     */
+    public InputStream open(String url, String sha1) throws IOException {
+        if (sha1 == null) {
+            return new FileInputStream(get(url, null));
+        }
+        CompletableFuture<File> future = new CompletableFuture<>();
+        CompletableFuture<File> existing = fetched.putIfAbsent(url, future);
+        if (existing != null) {
+            return new FileInputStream(await(existing));
+        }
+        File file = hashedFile(sha1);
+        if (file.isFile()) {
+            future.complete(file);
+            return new FileInputStream(file);
+        }
+        try {
+            File tmp = tempFile(file);
+            HttpTransport.Response response = downloader.retryPolicy.run(url, attempt -> {
+                HttpTransport.Response r = downloader.http.get(url);
+                if (!r.isSuccessful()) {
+                    try (r) {
+                        throw new HttpStatusException(url, r);
+                    }
+                }
+                return r;
+            });
+            return new CachingInputStream(url, sha1, response, tmp, file, future);
+        } catch (IOException | RuntimeException e) {
+            fetched.remove(url, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private static File await(CompletableFuture<File> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private File hashedFile(String sha1) {
+        return new File(directory, sha1.toLowerCase() + ".json");
+    }
+
+    private File getHashed(String url, String sha1) throws IOException {
+        File file = hashedFile(sha1);
+        if (file.isFile()) {
+            return file;
+        }
+        File tmp = tempFile(file);
+        downloader.retryPolicy.run(url, attempt -> {
+            fetchVerified(url, sha1, tmp);
+            return null;
+        });
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return file;
+    }
+
+    private void fetchVerified(String url, String sha1, File tmp) throws IOException {
+        try (HttpTransport.Response response = downloader.http.get(url)) {
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(url, response);
+            }
+            String actual = copy(response, tmp);
+            if (!sha1.equalsIgnoreCase(actual)) {
+                tmp.delete();
+                throw new HashMismatchException(url, sha1, actual);
+            }
+        }
+    }
+
+    private File getRevalidated(String url) throws IOException {
+        String key = urlKey(url);
+        File file = new File(directory, key + ".json");
+        File validatorsFile = new File(directory, key + ".validators");
+        Validators validators = file.isFile() ? readValidators(validatorsFile) : null;
+
+        Map<String, String> headers = new HashMap<>();
+        if (validators != null) {
+            if (validators.etag() != null) {
+                headers.put("If-None-Match", validators.etag());
+            }
+            if (validators.lastModified() != null) {
+                headers.put("If-Modified-Since", validators.lastModified());
+            }
+        }
+        try (HttpTransport.Response response = downloader.http.get(url, headers)) {
+            if (response.statusCode() == 304 && validators != null) {
+                log.debug("{} not modified", url);
+                return file;
+            }
+            if (!response.isSuccessful()) {
+                throw new HttpStatusException(url, response);
+            }
+            File tmp = tempFile(file);
+            copy(response, tmp);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeValidators(validatorsFile, new Validators(url, response.header("ETag"), response.header("Last-Modified")));
+        }
+        return file;
+    }
+
+    private File tempFile(File file) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create metadata cache directory " + directory);
+        }
+        return new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+    }
+
+    /**
+     * @return the sha1 of the copied content
+     */
+    private static String copy(HttpTransport.Response response, File file) throws IOException {
+        MessageDigest digest = ObjectStore.newSha1();
+        try (InputStream in = new DigestInputStream(response.body(), digest);
+             OutputStream out = new FileOutputStream(file)) {
+            in.transferTo(out);
+        }
+        return ObjectStore.hex(digest.digest());
+    }
+
+    /**
+     * Copies everything read from the response into the temporary file, and moves it into the cache once the whole document
+     * was read and matched its sha1. Closing it early reads the rest, so the document is cached either way.
+     */
+    private class CachingInputStream extends FilterInputStream {
+
+        private final String url;
+        private final String sha1;
+        private final HttpTransport.Response response;
+        private final MessageDigest digest;
+        private final File tmp;
+        private final File file;
+        private final CompletableFuture<File> future;
+        private final OutputStream out;
+        private boolean finished;
+
+        CachingInputStream(String url, String sha1, HttpTransport.Response response, File tmp, File file, CompletableFuture<File> future) throws IOException {
+            this(url, sha1, response, ObjectStore.newSha1(), tmp, file, future);
+        }
+
+        private CachingInputStream(String url, String sha1, HttpTransport.Response response, MessageDigest digest, File tmp, File file, CompletableFuture<File> future) throws IOException {
+            super(new DigestInputStream(response.body(), digest));
+            this.url = url;
+            this.sha1 = sha1;
+            this.response = response;
+            this.digest = digest;
+            this.tmp = tmp;
+            this.file = file;
+            this.future = future;
+            this.out = new FileOutputStream(tmp);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                return -1;
+            }
+            try {
+                int read = super.read(b, off, len);
+                if (read > 0) {
+                    out.write(b, off, read);
+                } else if (read < 0) {
+                    finish();
+                }
+                return read;
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped content has to end up in the cache as well
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            int read;
+            while (skipped < n && (read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void finish() throws IOException {
+            finished = true;
+            out.close();
+            String actual = ObjectStore.hex(digest.digest());
+            if (!sha1.equalsIgnoreCase(actual)) {
+                throw new HashMismatchException(url, sha1, actual);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            future.complete(file);
+        }
+
+        private void fail(Exception e) {
+            finished = true;
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            tmp.delete();
+            fetched.remove(url, future);
+            future.completeExceptionally(e);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!finished) {
+                    byte[] buffer = new byte[8192];
+                    while (read(buffer, 0, buffer.length) >= 0) {
+                        // drain into the cache
+                    }
+                }
+            } finally {
+                if (!future.isDone()) {
+                    fail(new IOException("Stream of " + url + " was closed before it was cached"));
+                }
+                response.close();
+            }
+        }
+
+    }
+
+    private static Validators readValidators(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return new Gson().fromJson(reader, Validators.class);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static void writeValidators(File file, Validators validators) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new Gson().toJson(validators, writer);
+        }
+    }
+
+    private static String urlKey(String url) {
+        return ObjectStore.hex(ObjectStore.newSha1().digest(url.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    record Validators(
+            String url,
+            String etag,
+            String lastModified
+    ) {
+    }
+
+}
@@ -0,0 +1,229 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.pool.PoolStats;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Counters for a run: wall time, files and bytes per {@link VersionJob.Stage stage}, HTTP request latencies and retries.
+ * Written as a JSON report at the end of the run, and optionally served as Prometheus text.
+ */
+public class Metrics {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(Metrics.class);
+
+    // upper bounds of the request latency buckets, in milliseconds
+    static final long[] LATENCY_BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final long startTime = System.currentTimeMillis();
+    private final Map<VersionJob.Stage, StageStats> stages = new EnumMap<>(VersionJob.Stage.class);
+
+    private final LongAdder[] latencyBuckets = new LongAdder[LATENCY_BUCKETS.length + 1];
+    private final LongAdder latencySumMillis = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+
+    // connection pool usage of the current transport, if there is one
+    private volatile Supplier<PoolStats> pool;
+
+    private HttpServer server;
+
+    public Metrics() {
+        for (VersionJob.Stage stage : VersionJob.Stage.values()) {
+            stages.put(stage, new StageStats());
+        }
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            latencyBuckets[i] = new LongAdder();
+        }
+    }
+
+    public StageStats stage(VersionJob.Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Records the time until the response headers of a request arrived
+     */
+    public void request(long millis) {
+        requests.increment();
+        latencySumMillis.add(millis);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && millis > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        latencyBuckets[bucket].increment();
+    }
+
+    public void received(long bytes) {
+        bytesReceived.add(bytes);
+    }
+
+    public void retry() {
+        retries.increment();
+    }
+
+    public void setPool(Supplier<PoolStats> pool) {
+        this.pool = pool;
+    }
+
+    public JsonObject report() {
+        JsonObject report = new JsonObject();
+        long now = System.currentTimeMillis();
+        report.addProperty("start", startTime);
+        report.addProperty("end", now);
+        report.addProperty("seconds", (now - startTime) / 1000.0);
+
+        JsonObject stagesJson = new JsonObject();
+        for (Map.Entry<VersionJob.Stage, StageStats> entry : stages.entrySet()) {
+            StageStats stats = entry.getValue();
+            double seconds = stats.seconds();
+            JsonObject stageJson = new JsonObject();
+            stageJson.addProperty("runs", stats.runs.sum());
+            stageJson.addProperty("seconds", seconds);
+            stageJson.addProperty("files", stats.files.sum());
+            stageJson.addProperty("bytes", stats.bytes.sum());
+            stageJson.addProperty("filesPerSecond", seconds > 0 ? stats.files.sum() / seconds : 0);
+            stageJson.addProperty("bytesPerSecond", seconds > 0 ? stats.bytes.sum() / seconds : 0);
+            stagesJson.add(entry.getKey().name().toLowerCase(), stageJson);
+        }
+        report.add("stages", stagesJson);
+
+        JsonObject http = new JsonObject();
+        http.addProperty("requests", requests.sum());
+        http.addProperty("bytes", bytesReceived.sum());
+        http.addProperty("retries", retries.sum());
+        JsonObject latency = new JsonObject();
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            latency.addProperty(i < LATENCY_BUCKETS.length ? "le" + LATENCY_BUCKETS[i] + "ms" : "more", latencyBuckets[i].sum());
+        }
+        latency.addProperty("sumMillis", latencySumMillis.sum());
+        http.add("latency", latency);
+        Supplier<PoolStats> pool = this.pool;
+        if (pool != null) {
+            PoolStats stats = pool.get();
+            JsonObject poolJson = new JsonObject();
+            poolJson.addProperty("leased", stats.getLeased());
+            poolJson.addProperty("available", stats.getAvailable());
+            poolJson.addProperty("pending", stats.getPending());
+            poolJson.addProperty("max", stats.getMax());
+            http.add("pool", poolJson);
+        }
+        report.add("http", http);
+        return report;
+    }
+
+    public void writeReport(File file) {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(report(), writer);
+            log.info("Wrote run report to {}", file);
+        } catch (IOException e) {
+            log.warn("Failed to write run report", e);
+        }
+    }
+
+    public String prometheus() {
+        StringBuilder out = new StringBuilder();
+        out.append("# TYPE mcasset_stage_seconds_total counter\n");
+        stages.forEach((stage, stats) -> sample(out, "mcasset_stage_seconds_total", stage, stats.seconds()));
+        out.append("# TYPE mcasset_stage_runs_total counter\n");
+        stages.forEach((stage, stats) -> sample(out, "mcasset_stage_runs_total", stage, stats.runs.sum()));
+        out.append("# TYPE mcasset_stage_files_total counter\n");
+        stages.forEach((stage, stats) -> sample(out, "mcasset_stage_files_total", stage, stats.files.sum()));
+        out.append("# TYPE mcasset_stage_bytes_total counter\n");
+        stages.forEach((stage, stats) -> sample(out, "mcasset_stage_bytes_total", stage, stats.bytes.sum()));
+
+        out.append("# TYPE mcasset_http_request_duration_seconds histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            cumulative += latencyBuckets[i].sum();
+            String le = i < LATENCY_BUCKETS.length ? format(LATENCY_BUCKETS[i] / 1000.0) : "+Inf";
+            out.append("mcasset_http_request_duration_seconds_bucket{le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+        }
+        out.append("mcasset_http_request_duration_seconds_sum ").append(format(latencySumMillis.sum() / 1000.0)).append('\n');
+        out.append("mcasset_http_request_duration_seconds_count ").append(requests.sum()).append('\n');
+        out.append("# TYPE mcasset_http_received_bytes_total counter\n");
+        out.append("mcasset_http_received_bytes_total ").append(bytesReceived.sum()).append('\n');
+        out.append("# TYPE mcasset_retries_total counter\n");
+        out.append("mcasset_retries_total ").append(retries.sum()).append('\n');
+        Supplier<PoolStats> pool = this.pool;
+        if (pool != null) {
+            PoolStats stats = pool.get();
+            out.append("# TYPE mcasset_http_pool_connections gauge\n");
+            out.append("mcasset_http_pool_connections{state=\"leased\"} ").append(stats.getLeased()).append('\n');
+            out.append("mcasset_http_pool_connections{state=\"available\"} ").append(stats.getAvailable()).append('\n');
+            out.append("mcasset_http_pool_connections{state=\"pending\"} ").append(stats.getPending()).append('\n');
+            out.append("mcasset_http_pool_connections{state=\"max\"} ").append(stats.getMax()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, VersionJob.Stage stage, double value) {
+        out.append(name).append("{stage=\"").append(stage.name().toLowerCase()).append("\"} ").append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == (long) value ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * Serves {@link #prometheus()} on http://localhost:&lt;port&gt;/metrics
+     */
+    public void serve(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] body = prometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-server");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        log.info("Serving metrics on http://localhost:{}/metrics", port);
+    }
+
+    public static class StageStats {
+        final LongAdder runs = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final LongAdder files = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        public void ran(long nanos) {
+            this.runs.increment();
+            this.nanos.add(nanos);
+        }
+
+        public void file(long bytes) {
+            this.files.increment();
+            this.bytes.add(bytes);
+        }
+
+        double seconds() {
+            return nanos.sum() / 1e9;
+        }
+    }
+
+}
@@ -0,0 +1,216 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Persistent content-addressed store for external assets, using the same xx/hash layout as resources.download.minecraft.net.
+ * Objects are evicted least-recently-used first once the store grows beyond its size cap.
+ */
+public class ObjectStore {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(ObjectStore.class);
+
+    private final File directory;
+    private final long maxSize;
+    private final boolean link;
+
+    // hash -> size, in access order (eldest first)
+    private final LinkedHashMap<String, Long> objects = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    // objects being copied out right now, which eviction has to leave alone
+    private final Map<String, Integer> pinned = new HashMap<>();
+
+    public ObjectStore(File directory, long maxSize, boolean link) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.link = link;
+    }
+
+    public synchronized void load() throws IOException {
+        objects.clear();
+        size = 0;
+        if (!directory.exists()) {
+            directory.mkdirs();
+            return;
+        }
+
+        // Restore LRU order from the last access times recorded in the file mtime
+        List<File> files = new ArrayList<>();
+        try (Stream<java.nio.file.Path> stream = Files.walk(directory.toPath(), 2)) {
+            stream.filter(Files::isRegularFile)
+                    .map(java.nio.file.Path::toFile)
+                    .forEach(file -> {
+                        if (file.getName().endsWith(".tmp")) {
+                            file.delete();
+                        } else {
+                            files.add(file);
+                        }
+                    });
+        }
+        files.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            objects.put(file.getName(), file.length());
+            size += file.length();
+        }
+        log.info("Object store has {} objects ({} MB)", objects.size(), size / 1024 / 1024);
+        evict(null);
+    }
+
+    File file(String hash) {
+        return new File(directory, hash.substring(0, 2) + "/" + hash);
+    }
+
+    public synchronized boolean contains(String hash) {
+        return objects.containsKey(hash);
+    }
+
+    /**
+     * Temporary file to download an object into before it is {@link #commitVerified(String, File) committed}
+     */
+    public File tempFile(String hash) {
+        File file = new File(directory, hash.substring(0, 2) + "/" + hash + "." + Thread.currentThread().getId() + ".tmp");
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    /**
+     * Moves a file into the store whose hash was already verified while it was downloaded
+     */
+    public void commitVerified(String hash, File tempFile) throws IOException {
+        File target = file(hash);
+        Files.move(tempFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        synchronized (this) {
+            Long previous = objects.put(hash, target.length());
+            if (previous != null) {
+                size -= previous;
+            }
+            size += target.length();
+            evict(hash);
+        }
+    }
+
+    /**
+     * Copies (or hard-links) a stored object to the target file. The object can't be evicted while it is being copied.
+     *
+     * @return <code>false</code> if the object is not in the store
+     */
+    public boolean copyTo(String hash, File target) throws IOException {
+        synchronized (this) {
+            if (objects.get(hash) == null) {
+                return false;
+            }
+            pinned.merge(hash, 1, Integer::sum);
+        }
+        try {
+            return copyPinned(hash, target);
+        } catch (NoSuchFileException e) {
+            // deleted behind our back, treat it as a miss
+            forget(hash);
+            return false;
+        } finally {
+            synchronized (this) {
+                pinned.computeIfPresent(hash, (key, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+    }
+
+    private boolean copyPinned(String hash, File target) throws IOException {
+        File source = file(hash);
+        if (!source.exists()) {
+            forget(hash);
+            return false;
+        }
+        source.setLastModified(System.currentTimeMillis());
+
+        target.getParentFile().mkdirs();
+        if (link) {
+            try {
+                Files.deleteIfExists(target.toPath());
+                Files.createLink(target.toPath(), source.toPath());
+                return true;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.debug("Failed to link {}, copying instead", hash, e);
+            }
+        }
+        Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return true;
+    }
+
+    private synchronized void forget(String hash) {
+        Long removed = objects.remove(hash);
+        if (removed != null) {
+            size -= removed;
+        }
+    }
+
+    private void evict(String keep) {
+        if (maxSize <= 0) {
+            return;
+        }
+        Iterator<Map.Entry<String, Long>> iterator = objects.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (eldest.getKey().equals(keep) || pinned.containsKey(eldest.getKey())) {
+                continue;
+            }
+            file(eldest.getKey()).delete();
+            size -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    static String sha1(File file) throws IOException {
+        MessageDigest digest = newSha1();
+        try (InputStream input = new FileInputStream(file)) {
+            byte[] buffer = new byte[8192];
+            int length;
+            while ((length = input.read(buffer)) > 0) {
+                digest.update(buffer, 0, length);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
+
+    static byte[] unhex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex, 2 * i, 2 * i + 2, 16);
+        }
+        return bytes;
+    }
+
+}
@@ -0,0 +1,192 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Memory-mapped reader for packs written by {@link PackWriter}. Lookups are binary searches over the mapped index, contents are slices of the mapping.
+ * Safe to use from multiple threads.
+ */
+public class PackReader implements Closeable {
+
+    // packs larger than this are mapped in several regions
+    private static final long REGION_SIZE = 1L << 30;
+
+    private final File file;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] regions;
+    private final ByteBuffer entries;
+    private final ByteBuffer paths;
+    private final int count;
+
+    public PackReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < PackWriter.MAGIC.length + PackWriter.FOOTER_SIZE) {
+                throw new IOException(file + " is not a pack");
+            }
+            ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - PackWriter.FOOTER_SIZE, PackWriter.FOOTER_SIZE);
+            long entriesOffset = footer.getLong();
+            this.count = footer.getInt();
+            long pathsOffset = footer.getLong();
+            byte[] magic = new byte[PackWriter.MAGIC.length];
+            footer.get(magic);
+            if (!Arrays.equals(magic, PackWriter.MAGIC)) {
+                throw new IOException(file + " is not a pack");
+            }
+            this.entries = channel.map(FileChannel.MapMode.READ_ONLY, entriesOffset, (long) count * PackWriter.ENTRY_SIZE);
+            this.paths = channel.map(FileChannel.MapMode.READ_ONLY, pathsOffset, size - PackWriter.FOOTER_SIZE - pathsOffset);
+
+            this.regions = new MappedByteBuffer[(int) ((entriesOffset + REGION_SIZE - 1) / REGION_SIZE)];
+            for (int i = 0; i < regions.length; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, entriesOffset - start));
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public File file() {
+        return file;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the entry for the path, or null if the pack doesn't contain it
+     */
+    public Entry find(String path) {
+        int index = search(path.getBytes(StandardCharsets.UTF_8));
+        return index >= 0 ? entry(index) : null;
+    }
+
+    public Entry entry(int index) {
+        int base = index * PackWriter.ENTRY_SIZE;
+        long pathOffset = entries.getLong(base);
+        int pathLength = entries.getInt(base + 8);
+        byte[] sha1 = new byte[20];
+        entries.slice(base + 28, 20).get(sha1);
+        return new Entry(new String(pathBytes(pathOffset, pathLength), StandardCharsets.UTF_8), entries.getLong(base + 12), entries.getLong(base + 20), ObjectStore.hex(sha1));
+    }
+
+    /**
+     * @return all paths starting with the prefix, in index order
+     */
+    public List<String> list(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int index = search(key);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        List<String> result = new ArrayList<>();
+        for (; index < count; index++) {
+            byte[] path = path(index);
+            if (path.length < key.length || compare(Arrays.copyOf(path, key.length), key) != 0) {
+                break;
+            }
+            result.add(new String(path, StandardCharsets.UTF_8));
+        }
+        return result;
+    }
+
+    /**
+     * @return the content as a read-only buffer (a slice of the mapping, unless it spans two mapped regions)
+     */
+    public ByteBuffer read(Entry entry) {
+        int region = (int) (entry.offset() / REGION_SIZE);
+        int start = (int) (entry.offset() % REGION_SIZE);
+        if (start + entry.length() <= regions[region].capacity()) {
+            return regions[region].slice(start, (int) entry.length()).asReadOnlyBuffer();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(Math.toIntExact(entry.length()));
+        long offset = entry.offset();
+        while (copy.hasRemaining()) {
+            MappedByteBuffer mapped = regions[(int) (offset / REGION_SIZE)];
+            int from = (int) (offset % REGION_SIZE);
+            int length = Math.min(copy.remaining(), mapped.capacity() - from);
+            if (length <= 0) {
+                throw new BufferUnderflowException();
+            }
+            copy.put(mapped.slice(from, length));
+            offset += length;
+        }
+        return copy.flip().asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the content of the path, or null if the pack doesn't contain it
+     */
+    public InputStream open(String path) {
+        Entry entry = find(path);
+        if (entry == null) {
+            return null;
+        }
+        ByteBuffer buffer = read(entry);
+        if (buffer.hasArray()) {
+            return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new ByteArrayInputStream(bytes);
+    }
+
+    private int search(byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(path(mid), key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private byte[] path(int index) {
+        int base = index * PackWriter.ENTRY_SIZE;
+        return pathBytes(entries.getLong(base), entries.getInt(base + 8));
+    }
+
+    private byte[] pathBytes(long offset, int length) {
+        byte[] bytes = new byte[length];
+        paths.slice((int) offset, length).get(bytes);
+        return bytes;
+    }
+
+    static int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // the mappings stay valid until they are garbage collected
+        channel.close();
+    }
+
+    public record Entry(String path, long offset, long length, String sha1) {
+    }
+
+}
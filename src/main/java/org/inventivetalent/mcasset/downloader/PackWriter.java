@@ -0,0 +1,132 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a version into a single pack file: every distinct content once, followed by an index of all paths sorted by their UTF-8 bytes.
+ * <pre>
+ * "MCAPACK1"
+ * blobs
+ * entries   count * (path offset: long, path length: int, blob offset: long, blob length: long, sha1: 20 bytes)
+ * paths     UTF-8, concatenated
+ * footer    entries offset: long, count: int, paths offset: long, "MCAPACK1"
+ * </pre>
+ * Read with {@link PackReader}.
+ */
+public class PackWriter implements AutoCloseable {
+
+    static final byte[] MAGIC = "MCAPACK1".getBytes(StandardCharsets.US_ASCII);
+    static final int ENTRY_SIZE = 8 + 4 + 8 + 8 + 20;
+    static final int FOOTER_SIZE = 8 + 4 + 8 + MAGIC.length;
+
+    private final File file;
+    private final File tmp;
+    private final OutputStream out;
+    private long position;
+
+    private final List<Entry> entries = new ArrayList<>();
+    // sha1 -> where that content already is in the pack
+    private final Map<String, Entry> blobs = new HashMap<>();
+
+    public PackWriter(File file) throws IOException {
+        this.file = file;
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        this.tmp = new File(file.getPath() + ".tmp");
+        this.out = new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16);
+        write(MAGIC);
+    }
+
+    /**
+     * Adds the file's content under the path, unless the same content is already in the pack
+     *
+     * @param sha1 sha1 of the content if it is already known (hashed otherwise)
+     */
+    public void add(String path, File source, String sha1) throws IOException {
+        if (sha1 == null) {
+            sha1 = ObjectStore.sha1(source);
+        }
+        sha1 = sha1.toLowerCase();
+        Entry blob = blobs.get(sha1);
+        if (blob == null) {
+            long offset = position;
+            try (InputStream in = new FileInputStream(source)) {
+                byte[] buffer = new byte[JarExtractor.BUFFER_SIZE];
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    write(buffer, 0, length);
+                }
+            }
+            blob = new Entry(null, offset, position - offset, sha1);
+            blobs.put(sha1, blob);
+        }
+        entries.add(new Entry(path, blob.offset(), blob.length(), sha1));
+    }
+
+    public int blobCount() {
+        return blobs.size();
+    }
+
+    /**
+     * Writes the index and moves the pack into place
+     */
+    public void finish() throws IOException {
+        entries.sort((a, b) -> PackReader.compare(a.path().getBytes(StandardCharsets.UTF_8), b.path().getBytes(StandardCharsets.UTF_8)));
+
+        long entriesOffset = position;
+        long pathOffset = 0;
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        for (Entry e : entries) {
+            int pathLength = e.path().getBytes(StandardCharsets.UTF_8).length;
+            entry.clear();
+            entry.putLong(pathOffset).putInt(pathLength).putLong(e.offset()).putLong(e.length()).put(ObjectStore.unhex(e.sha1()));
+            write(entry.array());
+            pathOffset += pathLength;
+        }
+        long pathsOffset = position;
+        for (Entry e : entries) {
+            write(e.path().getBytes(StandardCharsets.UTF_8));
+        }
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        footer.putLong(entriesOffset).putInt(entries.size()).putLong(pathsOffset).put(MAGIC);
+        write(footer.array());
+        out.close();
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // no-op after finish(), otherwise drops the incomplete pack
+        out.close();
+        tmp.delete();
+    }
+
+    private void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        position += length;
+    }
+
+    record Entry(String path, long offset, long length, String sha1) {
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Include/exclude globs for the files of a version tree (e.g. <code>assets/minecraft/textures</code>, <code>data/&#42;/recipe</code>,
+ * <code>&#42;&#42;/&#42;.ogg</code>), compiled once into one pattern per set. A glob also matches everything below the directory it names.
+ * Top-level files (version.json etc.) and the generated index files are always included.
+ */
+public class PathFilter {
+
+    public static final PathFilter ALL = new PathFilter(List.of(), List.of());
+
+    private final Pattern include;
+    private final Pattern exclude;
+
+    /**
+     * @param includes globs of paths to keep (everything if empty)
+     * @param excludes globs of paths to drop, even if they are included
+     */
+    public PathFilter(List<String> includes, List<String> excludes) {
+        this.include = compile(includes);
+        this.exclude = compile(excludes);
+    }
+
+    public boolean isAll() {
+        return include == null && exclude == null;
+    }
+
+    public boolean accepts(String path) {
+        if (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        int slash = path.lastIndexOf('/');
+        if (slash < 0 || TreeSync.isIndexFile(path.substring(slash + 1))) {
+            return true;
+        }
+        return (include == null || include.matcher(path).matches()) && (exclude == null || !exclude.matcher(path).matches());
+    }
+
+    /**
+     * Splits a comma-separated list of globs, leaving the commas of <code>{a,b}</code> alternatives alone
+     */
+    public static List<String> split(String globs) {
+        List<String> split = new ArrayList<>();
+        int braces = 0;
+        int start = 0;
+        for (int i = 0; i < globs.length(); i++) {
+            char c = globs.charAt(i);
+            if (c == '{') {
+                braces++;
+            } else if (c == '}' && braces > 0) {
+                braces--;
+            } else if (c == ',' && braces == 0) {
+                split.add(globs.substring(start, i));
+                start = i + 1;
+            }
+        }
+        split.add(globs.substring(start));
+        return split;
+    }
+
+    private static Pattern compile(List<String> globs) {
+        List<String> regexes = globs.stream()
+                .map(String::trim)
+                .map(glob -> glob.replaceAll("^/+|/+$", ""))
+                .filter(glob -> !glob.isEmpty())
+                .map(PathFilter::toRegex)
+                .collect(Collectors.toList());
+        if (regexes.isEmpty()) {
+            return null;
+        }
+        return Pattern.compile("(?:" + String.join("|", regexes) + ")(?:/.*)?");
+    }
+
+    /**
+     * <code>**</code> matches across directories, <code>*</code> and <code>?</code> within one, <code>{a,b}</code> either alternative
+     */
+    static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int braces = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*' -> {
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < glob.length() && glob.charAt(i + 1) == '/') {
+                            // "a/**/b" also matches "a/b"
+                            i++;
+                            regex.append("(?:.*/)?");
+                        } else {
+                            regex.append(".*");
+                        }
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                }
+                case '?' -> regex.append("[^/]");
+                case '{' -> {
+                    braces++;
+                    regex.append("(?:");
+                }
+                case '}' -> {
+                    if (braces > 0) {
+                        braces--;
+                        regex.append(')');
+                    } else {
+                        regex.append("\\}");
+                    }
+                }
+                case ',' -> regex.append(braces > 0 ? "|" : ",");
+                default -> regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        while (braces-- > 0) {
+            regex.append(')');
+        }
+        return regex.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "PathFilter[include=" + include + ", exclude=" + exclude + "]";
+    }
+
+}
@@ -1,7 +1,25 @@
 package org.inventivetalent.mcasset.downloader;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 public interface ProgressCallback {
 
+	long INTERVAL_MILLIS = 250;
+
 	void call(double now, double total);
 
+	/**
+	 * Passes on at most one call per interval (and always the final one), printing progress is not free
+	 */
+	static ProgressCallback throttled(ProgressCallback callback) {
+		AtomicLong last = new AtomicLong();
+		return (now, total) -> {
+			long time = System.currentTimeMillis();
+			long previous = last.get();
+			if ((now >= total && total > 0) || (time - previous >= INTERVAL_MILLIS && last.compareAndSet(previous, time))) {
+				callback.call(now, total);
+			}
+		};
+	}
+
 }
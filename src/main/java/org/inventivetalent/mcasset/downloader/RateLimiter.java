@@ -0,0 +1,46 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simple token bucket, allowing short bursts of up to one second's worth of requests
+ */
+public class RateLimiter {
+
+    private final double permitsPerSecond;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    public RateLimiter(double permitsPerSecond) {
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = Math.max(1, permitsPerSecond);
+        this.tokens = this.capacity;
+    }
+
+    public void acquire() throws InterruptedException {
+        if (permitsPerSecond <= 0) {
+            return;
+        }
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (tokens >= 1) {
+                    tokens -= 1;
+                    return;
+                }
+                waitNanos = (long) ((1 - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(1, waitNanos));
+        }
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+    }
+
+}
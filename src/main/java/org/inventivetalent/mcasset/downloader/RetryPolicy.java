@@ -0,0 +1,80 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries a download a limited number of times, waiting an exponentially growing, jittered delay between attempts
+ * (or as long as the server's Retry-After asks, if that is longer)
+ */
+public class RetryPolicy {
+
+    // don't let a server park us forever
+    static final long MAX_RETRY_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(RetryPolicy.class);
+
+    private final int attempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final Metrics metrics;
+
+    public RetryPolicy(int attempts, long baseDelayMillis, long maxDelayMillis, Metrics metrics) {
+        this.attempts = Math.max(1, attempts);
+        this.baseDelayMillis = Math.max(1, baseDelayMillis);
+        this.maxDelayMillis = Math.max(this.baseDelayMillis, maxDelayMillis);
+        this.metrics = metrics;
+    }
+
+    public <T> T run(String description, Attempt<T> attempt) throws IOException {
+        for (int i = 0; ; i++) {
+            try {
+                return attempt.run(i);
+            } catch (IOException e) {
+                if (i + 1 >= attempts || !isRetryable(e)) {
+                    throw e;
+                }
+                long delay = delayMillis(i, e);
+                log.warn("{} failed ({}), retrying in {} ms ({}/{})", description, e.getMessage(), delay, i + 1, attempts - 1);
+                metrics.retry();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting to retry " + description);
+                    interrupted.addSuppressed(e);
+                    throw interrupted;
+                }
+            }
+        }
+    }
+
+    /**
+     * "Equal jitter": half of the exponential delay is fixed, the other half random, so concurrent retries spread out but still back off
+     */
+    long delayMillis(int attempt, IOException e) {
+        long cap = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        long delay = cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2 + 1);
+        if (e instanceof HttpStatusException status) {
+            delay = Math.max(delay, Math.min(status.retryAfterMillis(), MAX_RETRY_AFTER_MILLIS));
+        }
+        return delay;
+    }
+
+    static boolean isRetryable(IOException e) {
+        if (e instanceof HttpStatusException status) {
+            // other 4xx won't get better by asking again
+            return status.isOverload() || status.statusCode() == 408;
+        }
+        return true;
+    }
+
+    public interface Attempt<T> {
+        T run(int attempt) throws IOException;
+    }
+
+}
@@ -0,0 +1,99 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file of known size as several byte ranges over separate connections,
+ * each written to its position of the preallocated output file
+ */
+public class SegmentedDownload {
+
+    private final HttpTransport http;
+    private final RetryPolicy retryPolicy;
+    private final int segments;
+
+    public SegmentedDownload(HttpTransport http, RetryPolicy retryPolicy, int segments) {
+        this.http = http;
+        this.retryPolicy = retryPolicy;
+        this.segments = Math.max(1, segments);
+    }
+
+    public void download(String url, long size, File file) throws IOException {
+        long segmentSize = (size + segments - 1) / segments;
+        ExecutorService executor = Executors.newFixedThreadPool(segments);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (size > 0) {
+                // preallocate
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+            try {
+                List<Future<?>> futures = new ArrayList<>(segments);
+                for (long start = 0; start < size; start += segmentSize) {
+                    long first = start;
+                    long last = Math.min(size, start + segmentSize) - 1;
+                    futures.add(executor.submit(() -> retryPolicy.run("Range " + first + "-" + last + " of " + url, attempt -> {
+                        downloadRange(url, first, last, size, channel);
+                        return null;
+                    })));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                // stop the other segments (and their retries) before the channel they write to is closed
+                stop(executor);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Interrupts the segments and waits for them. A segment still blocked in a read after that fails once the channel is closed,
+     * and being interrupted it doesn't retry.
+     */
+    private static void stop(ExecutorService executor) throws InterruptedException {
+        executor.shutdownNow();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    private void downloadRange(String url, long first, long last, long size, FileChannel channel) throws IOException {
+        try (HttpTransport.Response response = http.get(url, Map.of("Range", "bytes=" + first + "-" + last))) {
+            String contentRange = response.header("Content-Range");
+            if (response.statusCode() != 206 || !("bytes " + first + "-" + last + "/" + size).equals(contentRange)) {
+                throw new IOException("Server did not return range " + first + "-" + last + " of " + url + " (HTTP " + response.statusCode() + ", " + contentRange + ")");
+            }
+            long position = first;
+            byte[] buffer = new byte[JarExtractor.BUFFER_SIZE];
+            try (InputStream input = response.body()) {
+                int length;
+                while ((length = input.read(buffer)) > 0) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                }
+            }
+            if (position != last + 1) {
+                throw new IOException("Range " + first + "-" + last + " of " + url + " ended at " + position);
+            }
+        }
+    }
+
+}
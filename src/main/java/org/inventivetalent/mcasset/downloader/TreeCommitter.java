@@ -0,0 +1,133 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Commits the paths a {@link TreeSync} changed straight into the index, instead of letting <code>git add .</code> walk and re-hash the whole work tree.
+ * Only the changed (or restored) files are looked at, and the index's cached tree objects are reused for every directory that didn't change.
+ */
+public class TreeCommitter {
+
+    private final Repository repository;
+
+    public TreeCommitter(Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @param trustIndex whether the index is known to match the work tree apart from what the sync changed or restored,
+     *                   otherwise every produced path is compared against it (e.g. files left behind by an interrupted run nobody recorded)
+     */
+    public RevCommit commit(TreeSync sync, String message, PersonIdent committer, boolean trustIndex) throws IOException {
+        DirCache dirCache = repository.lockDirCache();
+        try (ObjectInserter inserter = repository.newObjectInserter();
+             RevWalk walk = new RevWalk(repository)) {
+            DirCacheEditor editor = dirCache.editor();
+            Set<String> changed = sync.changedPaths();
+            Set<String> candidates;
+            if (trustIndex) {
+                candidates = new HashSet<>(changed);
+                candidates.addAll(sync.restoredPaths());
+            } else {
+                candidates = sync.paths();
+            }
+            for (String path : candidates) {
+                File file = sync.file(path);
+                if (!file.isFile()) {
+                    if (trustIndex && changed.contains(path)) {
+                        editor.add(new DirCacheEditor.DeletePath(path));
+                    }
+                    continue;
+                }
+                long length = file.length();
+                long lastModified = file.lastModified();
+                DirCacheEntry existing = dirCache.getEntry(path);
+                // files the run didn't write may still be missing from the index, so anything that doesn't match its entry is hashed
+                if (!changed.contains(path) && existing != null && existing.getLength() == length && existing.getLastModified() == lastModified) {
+                    continue;
+                }
+                ObjectId blob;
+                try (InputStream in = new FileInputStream(file)) {
+                    blob = inserter.insert(Constants.OBJ_BLOB, length, in);
+                }
+                editor.add(new DirCacheEditor.PathEdit(path) {
+                    @Override
+                    public void apply(DirCacheEntry entry) {
+                        entry.setFileMode(FileMode.REGULAR_FILE);
+                        entry.setObjectId(blob);
+                        entry.setLength(length);
+                        entry.setLastModified(lastModified);
+                    }
+                });
+            }
+            if (!trustIndex) {
+                Set<String> paths = sync.paths();
+                for (int i = 0; i < dirCache.getEntryCount(); i++) {
+                    String path = dirCache.getEntry(i).getPathString();
+                    if (!paths.contains(path) && !isCheckoutFile(path) && sync.accepts(path) && !sync.file(path).isFile()) {
+                        editor.add(new DirCacheEditor.DeletePath(path));
+                    }
+                }
+            }
+            editor.finish();
+            ObjectId tree = dirCache.writeTree(inserter);
+
+            ObjectId head = repository.resolve(Constants.HEAD);
+            CommitBuilder commitBuilder = new CommitBuilder();
+            commitBuilder.setTreeId(tree);
+            if (head != null) {
+                commitBuilder.setParentId(head);
+            }
+            commitBuilder.setAuthor(new PersonIdent(repository));
+            commitBuilder.setCommitter(committer);
+            commitBuilder.setMessage(message);
+            ObjectId commitId = inserter.insert(commitBuilder);
+            inserter.flush();
+            RevCommit commit = walk.parseCommit(commitId);
+
+            RefUpdate update = repository.updateRef(Constants.HEAD);
+            update.setNewObjectId(commitId);
+            update.setExpectedOldObjectId(head != null ? head : ObjectId.zeroId());
+            update.setRefLogMessage("commit: " + commit.getShortMessage(), false);
+            RefUpdate.Result result = update.forceUpdate();
+            switch (result) {
+                case NEW, FORCED, FAST_FORWARD -> {
+                }
+                default -> throw new IOException("Failed to update HEAD to " + commitId.name() + ": " + result);
+            }
+
+            dirCache.write();
+            dirCache.commit();
+            return commit;
+        } finally {
+            dirCache.unlock();
+        }
+    }
+
+    /**
+     * Top-level git files are kept from the checkout rather than produced by the run
+     */
+    static boolean isCheckoutFile(String path) {
+        return path.indexOf('/') < 0 && path.contains("git");
+    }
+
+}
@@ -0,0 +1,339 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Writes files into a version's extract directory.
+ * In incremental mode, files whose content did not change are left untouched and files that were not produced by the current run
+ * are removed afterwards with {@link #deleteStale()}, so re-processing an unchanged version writes (almost) nothing.
+ */
+public class TreeSync {
+
+    private final File root;
+    private final boolean incremental;
+
+    // Paths (relative to the root, separated by /) produced by the current run
+    private final Set<String> expected = ConcurrentHashMap.newKeySet();
+    // Paths whose content was verified against a known sha1 by the current run -> that sha1
+    private final Map<String, String> verified = new ConcurrentHashMap<>();
+    // Paths written or deleted by the current run
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    // Paths found up to date while resuming, which the interrupted run may have written without committing them
+    private final Set<String> restored = ConcurrentHashMap.newKeySet();
+    private volatile boolean resuming;
+    // Directories we already created (or found to exist), so mkdirs only hits the filesystem once per directory
+    private final Set<File> createdDirectories = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger written = new AtomicInteger();
+    // where written files are counted, the stats of the stage that is currently running
+    private volatile Metrics.StageStats stats;
+    private final AtomicInteger unchanged = new AtomicInteger();
+    private volatile PathFilter filter = PathFilter.ALL;
+
+    public TreeSync(File root, boolean incremental) {
+        this.root = root;
+        this.incremental = incremental;
+    }
+
+    public File root() {
+        return root;
+    }
+
+    public void setStats(Metrics.StageStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Whether the tree holds the progress of an interrupted run, so files found up to date may not be committed yet
+     */
+    public void setResuming(boolean resuming) {
+        this.resuming = resuming;
+    }
+
+    public void setFilter(PathFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Whether the path passes the include/exclude filter, checked before anything is downloaded or extracted for it
+     */
+    public boolean accepts(String path) {
+        return filter.accepts(path);
+    }
+
+    public File file(String path) {
+        return new File(root, path);
+    }
+
+    public String relativePath(File file) {
+        return root.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Marks a file as part of the current tree without writing it
+     */
+    public void mark(String path) {
+        expected.add(path);
+    }
+
+    /**
+     * Marks a file an earlier run produced (e.g. restored from its journal), which may not be committed yet
+     */
+    public void restored(String path) {
+        mark(path);
+        restored.add(path);
+    }
+
+    public boolean mkdirs(File directory) {
+        if (createdDirectories.contains(directory)) {
+            return true;
+        }
+        if (directory.mkdirs() || directory.isDirectory()) {
+            createdDirectories.add(directory);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the file was (re-)written
+     */
+    public boolean write(String path, byte[] content) throws IOException {
+        mark(path);
+        File file = file(path);
+        if (incremental && file.length() == content.length && file.isFile() && Arrays.equals(Files.readAllBytes(file.toPath()), content)) {
+            upToDate(path);
+            return false;
+        }
+        verified.remove(path);
+        File parent = file.getParentFile();
+        if (parent != null && !mkdirs(parent)) {
+            throw new IOException("Failed to create parent directories for " + file);
+        }
+        // the file may be a hard link (blob store), which must not be written through
+        Files.deleteIfExists(file.toPath());
+        try (OutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(content);
+        }
+        changed(path, content.length);
+        return true;
+    }
+
+    /**
+     * Moves a file written elsewhere (in the same file system) into place, unless the existing file has the same content
+     *
+     * @return whether the file was replaced
+     */
+    public boolean replace(String path, File source) throws IOException {
+        mark(path);
+        File file = file(path);
+        if (incremental && file.isFile() && file.length() == source.length() && Files.mismatch(file.toPath(), source.toPath()) == -1) {
+            Files.delete(source.toPath());
+            upToDate(path);
+            return false;
+        }
+        verified.remove(path);
+        Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed(path, file.length());
+        return true;
+    }
+
+    /**
+     * Whether the file already exists with the given sha1
+     *
+     * @param source a file known to have that hash, to cheaply detect hard links to it (may be null)
+     */
+    public boolean isUpToDate(String path, String sha1, File source) {
+        if (!incremental || sha1 == null) {
+            return false;
+        }
+        if (sha1.equalsIgnoreCase(verified.get(path))) {
+            return true;
+        }
+        File file = file(path);
+        if (!file.isFile()) {
+            return false;
+        }
+        try {
+            if (source != null && source.exists() && Files.isSameFile(file.toPath(), source.toPath())) {
+                return true;
+            }
+            return sha1.equalsIgnoreCase(ObjectStore.sha1(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Marks the file and checks whether it's up to date, counting it as unchanged if so
+     */
+    public boolean skipIfUpToDate(String path, String sha1, File source) {
+        mark(path);
+        if (isUpToDate(path, sha1, source)) {
+            upToDate(path);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a file known to be up to date without checking it
+     */
+    public void unchanged(String path) {
+        mark(path);
+        upToDate(path);
+    }
+
+    private void upToDate(String path) {
+        unchanged.incrementAndGet();
+        if (resuming) {
+            restored.add(path);
+        }
+    }
+
+    /**
+     * Records a file written by someone else (e.g. a download) as changed
+     */
+    public void written(String path) {
+        mark(path);
+        changed(path, file(path).length());
+    }
+
+    /**
+     * Records a file written by someone else whose content was verified against the sha1, so it doesn't have to be hashed again
+     */
+    public void written(String path, String sha1) {
+        written(path);
+        if (sha1 != null) {
+            verified.put(path, sha1.toLowerCase());
+        }
+    }
+
+    /**
+     * @return the sha1 a file written by the current run was verified against, or null if it wasn't
+     */
+    public String verifiedSha1(String path) {
+        return verified.get(path);
+    }
+
+    private void changed(String path, long bytes) {
+        changed.add(path);
+        written.incrementAndGet();
+        Metrics.StageStats stats = this.stats;
+        if (stats != null) {
+            stats.file(bytes);
+        }
+    }
+
+    /**
+     * Deletes a file, recording it as changed
+     */
+    public boolean delete(String path) {
+        verified.remove(path);
+        if (file(path).delete()) {
+            changed.add(path);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Deletes all files that weren't produced by the current run, and directories left empty.
+     * Top-level git files, files outside the path filter and the generated _list.json/_all.json index files are kept, the index is regenerated afterwards.
+     *
+     * @return the number of deleted files
+     */
+    public int deleteStale() throws IOException {
+        if (!incremental || !root.isDirectory()) {
+            return 0;
+        }
+        int deleted = 0;
+        for (File top : Objects.requireNonNull(root.listFiles())) {
+            if (top.getName().contains("git")) {
+                continue;
+            }
+            List<Path> paths;
+            try (Stream<Path> stream = Files.walk(top.toPath())) {
+                paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            }
+            for (Path path : paths) {
+                File file = path.toFile();
+                if (file.isDirectory()) {
+                    String[] children = file.list();
+                    if (children != null && Arrays.stream(children).allMatch(TreeSync::isIndexFile)) {
+                        for (String child : children) {
+                            delete(relativePath(new File(file, child)));
+                        }
+                        file.delete();
+                        createdDirectories.remove(file);
+                    }
+                    continue;
+                }
+                if (isIndexFile(file.getName())) {
+                    continue;
+                }
+                String relativePath = relativePath(file);
+                if (!accepts(relativePath)) {
+                    // outside the filter this run can't tell whether the file is stale, keep what an earlier run produced
+                    mark(relativePath);
+                    continue;
+                }
+                if (!expected.contains(relativePath) && delete(relativePath)) {
+                    deleted++;
+                }
+            }
+        }
+        return deleted;
+    }
+
+    static boolean isIndexFile(String name) {
+        return "_list.json".equals(name) || "_all.json".equals(name);
+    }
+
+    /**
+     * @return paths produced by the current run
+     */
+    public Set<String> paths() {
+        return Collections.unmodifiableSet(expected);
+    }
+
+    /**
+     * @return paths written or deleted by the current run (only complete in incremental mode)
+     */
+    public Set<String> changedPaths() {
+        return changed;
+    }
+
+    /**
+     * @return paths an earlier, interrupted run may have written without committing them
+     */
+    public Set<String> restoredPaths() {
+        return Collections.unmodifiableSet(restored);
+    }
+
+    public int writtenCount() {
+        return written.get();
+    }
+
+    public int unchangedCount() {
+        return unchanged.get();
+    }
+
+}
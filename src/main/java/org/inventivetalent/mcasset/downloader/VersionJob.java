@@ -0,0 +1,597 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.backblaze.b2.client.B2StorageClient;
+import com.backblaze.b2.client.B2StorageClientFactory;
+import com.backblaze.b2.client.contentSources.B2ContentTypes;
+import com.backblaze.b2.client.contentSources.B2FileContentSource;
+import com.backblaze.b2.client.structures.B2UploadFileRequest;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.input.TeeInputStream;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Strings;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.inventivetalent.mcasset.downloader.data.Downloads;
+import org.inventivetalent.mcasset.downloader.data.Version;
+import org.inventivetalent.mcasset.downloader.data.asset.VersionAssetDetails;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Processing of a single version, split into stages so multiple versions can be pipelined.
+ * Every version works in its own directory (extract/&lt;version&gt;).
+ */
+public class VersionJob {
+
+    public enum Stage {
+        METADATA,
+        JAR,
+        EXTRACT,
+        ASSETS,
+        COMMIT,
+        UPLOAD
+    }
+
+    static final File EXTRACT_ROOT = new File("extract");
+    private static final String JAR_FILE = "client.jar";
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(VersionJob.class);
+
+    private final Downloader downloader;
+    private final Version versionObject;
+    private final String version;
+    private final String safeVersion;
+    private final File extractDirectory;
+
+    private TreeSync sync;
+    private Git git;
+    private CredentialsProvider credentialsProvider;
+    private VersionAssetDetails versionDetails;
+    private VersionJournal journal;
+    private File jarFile;
+    // the jar's entries as seen while streaming it, for the manifest
+    private List<ZipDirectory.Entry> jarEntries;
+    private boolean extracted;
+
+    public VersionJob(Downloader downloader, Version versionObject) {
+        this.downloader = downloader;
+        this.versionObject = versionObject;
+        this.version = versionObject.id();
+        this.safeVersion = safeVersion(version);
+        this.extractDirectory = new File(EXTRACT_ROOT, safeVersion);
+    }
+
+    /**
+     * Version id as used for directory and branch names
+     */
+    static String safeVersion(String version) {
+        return version.replace("_", "__").replace(" ", "_");
+    }
+
+    public String version() {
+        return version;
+    }
+
+    /**
+     * Opens the version's journal (if enabled)
+     *
+     * @return whether an earlier run already finished the version
+     */
+    public boolean resume() throws IOException {
+        File journalDirectory = downloader.journalDirectory();
+        if (journalDirectory == null) {
+            return false;
+        }
+        journal = VersionJournal.open(journalDirectory, safeVersion, versionObject.sha1() != null ? versionObject.sha1() : versionObject.url());
+        return journal.isComplete();
+    }
+
+    /**
+     * Forgets what an earlier run finished, so all stages run again
+     */
+    public void restart() throws IOException {
+        if (journal != null) {
+            journal.reset();
+        }
+    }
+
+    public void run(Stage stage) throws Exception {
+        if (journal != null && journal.isDone(stage) && skip(stage)) {
+            log.info("{} of {} was already done", stage, version);
+            return;
+        }
+        Metrics.StageStats stats = downloader.metrics.stage(stage);
+        if (sync != null) {
+            sync.setStats(stats);
+        }
+        long start = System.nanoTime();
+        switch (stage) {
+            case METADATA -> metadata();
+            case JAR -> downloadJar();
+            case EXTRACT -> extract();
+            case ASSETS -> downloadAssets();
+            case COMMIT -> commit();
+            case UPLOAD -> upload();
+        }
+        stats.ran(System.nanoTime() - start);
+        if (journal != null) {
+            journal.done(stage);
+            if (journal.isComplete()) {
+                journal.complete();
+            }
+        }
+    }
+
+    /**
+     * Restores what a stage finished by an earlier run left behind
+     *
+     * @return whether the stage can be skipped
+     */
+    private boolean skip(Stage stage) throws IOException {
+        switch (stage) {
+            case JAR -> {
+                if (journal.isDone(Stage.EXTRACT)) {
+                    return true;
+                }
+                File jar = journal.file(JAR_FILE);
+                if (jar.isFile()) {
+                    jarFile = jar;
+                    return true;
+                }
+                return false;
+            }
+            case EXTRACT -> {
+                // restored rather than written, TreeCommitter stages whatever of them isn't in the index yet
+                for (String path : journal.extracted()) {
+                    sync.restored(path);
+                }
+                return true;
+            }
+            case COMMIT, UPLOAD -> {
+                return true;
+            }
+            // metadata is needed by all later stages, and the journal already makes assets cheap to check
+            default -> {
+                return false;
+            }
+        }
+    }
+
+    void metadata() throws Exception {
+        // Create extract directories
+        System.out.println();
+        System.out.println();
+        boolean reuseClone = downloader.incrementalSync && downloader.gitEnabled && new File(extractDirectory, ".git").isDirectory();
+        // an interrupted run's progress is still in the work tree, so it must not be reset to the remote branch
+        boolean resuming = journal != null && journal.isResuming() && (reuseClone || !downloader.gitEnabled);
+        if (resuming) {
+            log.info("Resuming {} where the last run stopped", version);
+        } else if (journal != null && journal.isResuming()) {
+            journal.reset();
+        }
+        if (!downloader.incrementalSync || (downloader.gitEnabled && !reuseClone)) {
+            // Start from scratch (a fresh clone needs an empty directory)
+            log.info("Cleaning up old files...");
+            if (extractDirectory.exists()) {
+                FileUtils.deleteDirectory(extractDirectory);
+            }
+        }
+        if (!extractDirectory.exists()) {
+            extractDirectory.mkdirs();
+        }
+        sync = new TreeSync(extractDirectory, downloader.incrementalSync);
+        sync.setFilter(downloader.pathFilter);
+        sync.setResuming(resuming);
+        sync.setStats(downloader.metrics.stage(Stage.METADATA));
+
+        // Init git
+        if (downloader.gitEnabled) {
+            log.info("Initializing Git as user {}...", downloader.gitEmail);
+            credentialsProvider = new UsernamePasswordCredentialsProvider(downloader.gitEmail, downloader.gitPassword);
+            if (resuming) {
+                git = downloader.gitMirror != null ? downloader.gitMirror.open(extractDirectory) : Git.open(extractDirectory);
+            } else if (downloader.gitMirror != null) {
+                boolean remoteBranch = downloader.gitMirror.fetch(safeVersion, credentialsProvider);
+                log.info("Checking out branch {} from mirror...", safeVersion);
+                git = downloader.gitMirror.open(extractDirectory);
+                if (downloader.gitMirror.checkout(git, safeVersion, remoteBranch)) {
+                    git.commit()
+                            .setMessage("Create new branch for version " + safeVersion)
+                            .setCommitter("InventiveBot", downloader.gitEmail)
+                            .call();
+                }
+            } else if (reuseClone) {
+                log.info("Updating existing clone, branch {}...", safeVersion);
+                git = Git.open(extractDirectory);
+                downloader.updateClone(git, safeVersion, credentialsProvider);
+            } else {
+                log.info("Cloning repository, branch {}...", safeVersion);
+                git = Git.cloneRepository()
+                        .setURI(downloader.gitRepo)
+                        .setBranchesToClone(Arrays.asList("master", safeVersion))
+                        .setDirectory(extractDirectory)
+                        .setCredentialsProvider(credentialsProvider)
+                        .setProgressMonitor(new TextProgressMonitor(new OutputStreamWriter(System.out)))
+                        .call();
+            }
+            StoredConfig config = git.getRepository().getConfig();
+            config.setString("user", null, "email", downloader.gitEmail);
+            config.save();
+
+            // git checkout
+            Ref checkout = null;
+            try {
+                checkout = git.checkout().setName(safeVersion).call();
+            } catch (RefNotFoundException ignored) {
+            }
+            if (checkout == null) {
+                checkout = git.branchCreate().setName(safeVersion).call();
+                checkout = git.checkout().setName(safeVersion).call();
+                git.commit()
+                        .setMessage("Create new branch for version " + safeVersion)
+                        .setCommitter("InventiveBot", downloader.gitEmail)
+                        .call();
+            }
+        } else {
+            log.info("Git is disabled");
+        }
+
+        // delete any old data (incremental sync only removes stale files once everything is written)
+        if (!downloader.incrementalSync) {
+            try {
+                for (File file : extractDirectory.listFiles()) {
+                    if (file.getName().contains("git")) {
+                        continue;
+                    }
+                    if (file.isDirectory()) {
+                        FileUtils.deleteDirectory(file);
+                    } else {
+                        file.delete();
+                    }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        // Write meta file
+        versionObject.setDownloadTimestamp(System.currentTimeMillis());
+        sync.write("version.json", new GsonBuilder().setPrettyPrinting().create()
+                .toJson(versionObject).getBytes(StandardCharsets.UTF_8));
+
+        byte[] versionJson = downloader.metadataCache.read(versionObject.url(), versionObject.sha1());
+        versionDetails = Downloader.GSON.fromJson(new String(versionJson, StandardCharsets.UTF_8), VersionAssetDetails.class);
+        sync.write(versionObject.id() + ".json", versionJson);
+    }
+
+    void downloadJar() throws IOException {
+        String jarDownload = versionDetails.downloads().client().url();
+        String jarSha1 = versionDetails.downloads().client().sha1();
+        File partFile = journal != null ? journal.file(JAR_FILE + ".part") : null;
+        if (downloader.isSegmented(versionDetails.downloads().client()) && (partFile == null || !partFile.exists())) {
+            // several connections at once beat extracting while downloading over a single one
+            File segmentedFile = journal != null ? journal.file(JAR_FILE) : Files.createTempFile("mcasset-downloader", "").toFile();
+            try {
+                downloader.downloadSegmented(versionDetails.downloads().client(), segmentedFile);
+                jarFile = segmentedFile;
+                return;
+            } catch (IOException e) {
+                log.warn("Segmented download failed, falling back to a single connection", e);
+            }
+        }
+        // a partial download from an interrupted run is resumed instead of streamed again
+        if (downloader.streamingExtract && (partFile == null || !partFile.exists())) {
+            log.info("Downloading and extracting version " + version + " from " + jarDownload + "...");
+            try (HttpTransport.Response response = downloader.http.get(jarDownload)) {
+                if (!response.isSuccessful()) {
+                    throw new HttpStatusException(jarDownload, response);
+                }
+                if (partFile != null) {
+                    // keep a copy of the stream, so an interrupted run can pick up the download where it stopped
+                    try (InputStream in = new TeeInputStream(response.body(), new FileOutputStream(partFile), true)) {
+                        extractStream(in, response.contentLength(), jarSha1);
+                    }
+                    jarFile = journal.file(JAR_FILE);
+                    Files.move(partFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    extractStream(response.body(), response.contentLength(), jarSha1);
+                }
+                extracted = true;
+                return;
+            } catch (IOException e) {
+                log.warn("Streaming extraction failed, falling back to a temporary file", e);
+                if (e instanceof HashMismatchException && partFile != null) {
+                    // nothing of this download can be resumed
+                    partFile.delete();
+                }
+            } finally {
+                System.out.println();
+            }
+        }
+
+        log.info("Downloading version " + version + " from " + jarDownload + "...");
+        if (partFile != null) {
+            jarFile = journal.file(JAR_FILE);
+            downloader.downloadResumable(jarDownload, partFile, jarFile, jarSha1, null);
+        } else {
+            jarFile = Files.createTempFile("mcasset-downloader", "").toFile();
+            downloader.downloadFileRetry(jarDownload, jarFile, jarSha1, null);
+        }
+        System.out.println();
+    }
+
+    private void extractStream(InputStream in, long length, String sha1) throws IOException {
+        JarExtractor extractor = new JarExtractor(sync, downloader.extractThreads);
+        extractor.extract(in, length, sha1);
+        jarEntries = extractor.streamedEntries();
+    }
+
+    void extract() throws IOException {
+        if (!extracted) {
+            // Extract assets
+            System.out.println("Extracting archive...");
+            new JarExtractor(sync, downloader.extractThreads).extract(jarFile);
+        }
+        writeManifest();
+
+        if (journal != null) {
+            // the jar is kept in the journal directory until the version is complete
+            journal.saveExtracted(sync.paths());
+        } else if (jarFile != null) {
+            // Delete temporary file
+            jarFile.delete();
+        }
+    }
+
+    /**
+     * Records the version's path -&gt; size/hash manifest for diffs, from the entries seen while streaming the jar
+     * or from the jar while it is still around
+     */
+    void writeManifest() {
+        File directory = downloader.manifestDirectory();
+        if (directory == null) {
+            return;
+        }
+        try {
+            VersionManifest manifest = jarEntries != null
+                    ? VersionManifest.buildFromEntries(downloader, versionDetails, jarEntries)
+                    : VersionManifest.build(downloader, versionDetails, jarFile != null && jarFile.isFile() ? jarFile : null);
+            manifest.save(new File(directory, safeVersion + ".json"));
+        } catch (IOException e) {
+            log.warn("Failed to write the manifest of {}", version, e);
+        }
+    }
+
+    void downloadAssets() throws IOException, InterruptedException {
+        // Download external assets
+        log.info("Downloading external assets...");
+
+        AssetDownloadEngine assetEngine = new AssetDownloadEngine(downloader, downloader.objectStore, downloader.downloadMaxInFlight, downloader.downloadLimiter);
+        try (AssetIndexReader assetIndex = downloader.openAssetIndex(versionDetails.assetIndex())) {
+            assetEngine.downloadAll(assetIndex, sync, journal, new ProgressCallback() {
+                @Override
+                public void call(double now, double total) {
+                    try {
+                        System.out.write(("\r" + String.format("Downloaded assets %d/%d", (int) now, (int) total)).getBytes());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        }
+        System.out.println();
+
+        Downloads downloads = versionDetails.downloads();
+        if (downloads.clientMappings() != null && downloads.serverMappings() != null) {
+            // Download mappings
+            log.info("Downloading mappings...");
+            new File(extractDirectory, "mappings").mkdirs();
+            downloader.downloadMappings(sync, journal, "client.txt", downloads.clientMappings());
+            downloader.downloadMappings(sync, journal, "server.txt", downloads.serverMappings());
+        }
+        System.out.println();
+    }
+
+    /**
+     * Packs everything this run produced, reusing the sha1s the extract/assets stages already verified.
+     * The pack is written in addition to the tree, which stays the source for the commit, uploads and serving.
+     */
+    void pack(File packFile) throws IOException {
+        log.info("Packing {} into {}", version, packFile);
+        try (PackWriter writer = new PackWriter(packFile)) {
+            List<String> paths = new ArrayList<>(sync.paths());
+            Collections.sort(paths);
+            for (String path : paths) {
+                File file = sync.file(path);
+                if (file.isFile()) {
+                    writer.add(path, file, sync.verifiedSha1(path));
+                }
+            }
+            writer.finish();
+            log.info("Packed {} files ({} distinct) into {} bytes", paths.size(), writer.blobCount(), packFile.length());
+        }
+    }
+
+    void commit() throws Exception {
+        int deleted = sync.deleteStale();
+        new IndexGenerator(sync, downloader.extractThreads).generate();
+        if (downloader.incrementalSync) {
+            log.info("{} files written, {} unchanged, {} stale files deleted", sync.writtenCount(), sync.unchangedCount(), deleted);
+        }
+        if (downloader.packDirectory() != null) {
+            pack(new File(downloader.packDirectory(), safeVersion + ".mcpack"));
+        }
+        if (downloader.blobStore() != null) {
+            downloader.blobStore().linkTree(sync, downloader.extractThreads);
+        }
+
+        if (downloader.gitEnabled) {
+            log.info("Pushing changes to remote repo...");
+
+            RevCommit commit;
+            if (downloader.directCommit && downloader.incrementalSync) {
+                // incremental sync knows exactly which files changed, as long as the journal tells us about interrupted runs
+                boolean trustIndex = journal != null && new File(git.getRepository().getDirectory(), "index").isFile();
+                commit = new TreeCommitter(git.getRepository()).commit(sync, "Create/Update assets for version " + version, new PersonIdent("InventiveBot", downloader.gitEmail), trustIndex);
+            } else {
+                git.add()
+                        .addFilepattern(".")
+                        .call();
+                commit = git.commit()
+                        .setAll(true)
+                        .setAllowEmpty(true)
+                        .setMessage("Create/Update assets for version " + version)
+                        .setCommitter("InventiveBot", downloader.gitEmail)
+                        .call();
+            }
+            System.out.println(commit.getId() + "  " + commit.getShortMessage());
+            Ref ref = git.tag()
+                    .setObjectId(commit)
+                    .setName(safeVersion)
+                    .setForceUpdate(true)
+                    .call();
+            System.out.println(ref.getName());
+            Iterable<PushResult> result = git.push()
+                    .setRemote("origin")
+                    .setPushAll()
+                    .setPushTags()
+                    .setCredentialsProvider(credentialsProvider)
+                    .setProgressMonitor(new TextProgressMonitor(new OutputStreamWriter(System.out)))
+                    .call();
+            if (downloader.gitMirror != null) {
+                downloader.gitMirror.storePushed(git, safeVersion);
+            }
+        }
+    }
+
+    void upload() throws Exception {
+        B2StorageClient b2Client = null;
+        if (!Strings.isBlank(downloader.b2App)) {
+            try {
+                b2Client = B2StorageClientFactory.createDefaultFactory()
+                        .create(downloader.b2App, downloader.b2AppKey, "MCAssetDownloader");
+            } catch (Exception e) {
+                log.log(Level.WARN, "", e);
+            }
+        } else {
+            log.info("B2 is disabled");
+        }
+        if (b2Client == null) {
+            return;
+        }
+
+        log.info("Uploading to b2...");
+
+        B2Manifest manifest = new B2Manifest(new File(downloader.b2ManifestDirectory, safeVersion + ".json"));
+        manifest.load(b2Client, downloader.b2Bucket, safeVersion + "/");
+        AtomicInteger skipped = new AtomicInteger();
+
+        ExecutorService uploadExecutor = Executors.newFixedThreadPool(64);
+
+        B2StorageClient finalB2Client = b2Client;
+        List<Future<?>> futures = Files.walk(extractDirectory.toPath())
+                .filter(Files::isRegularFile)
+                .filter(p -> !p.toString().contains(".git"))
+                .filter(p -> sync.accepts(sync.relativePath(p.toFile())))
+                .map(path -> {
+                    final File file = path.toFile();
+                    final String fullName = file.getPath().replaceFirst("extract/", "");
+                    try {
+                        // files verified while downloading don't need to be read again
+                        String verifiedSha1 = sync.verifiedSha1(sync.relativePath(file));
+                        final String sha1 = verifiedSha1 != null ? verifiedSha1 : ObjectStore.sha1(file);
+                        final long size = file.length();
+                        if (manifest.isUploaded(fullName, sha1, size)) {
+                            skipped.incrementAndGet();
+                            return CompletableFuture.completedFuture(null);
+                        }
+                        B2UploadFileRequest request = B2UploadFileRequest
+                                .builder(downloader.b2Bucket, fullName, B2ContentTypes.B2_AUTO, B2FileContentSource
+                                        .builder(file).setSha1(sha1).build()).build();
+                        if (size > 5000000) {
+                            return uploadExecutor.submit(() -> {
+                                log.info("L" + fullName);
+                                try {
+                                    finalB2Client.uploadLargeFile(request, uploadExecutor);
+                                    manifest.uploaded(fullName, sha1, size);
+                                } catch (Exception e) {
+                                    log.log(Level.WARN, "", e);
+                                }
+                            });
+                        } else {
+                            return uploadExecutor.submit(() -> {
+                                log.info("S" + fullName);
+                                try {
+                                    finalB2Client.uploadSmallFile(request);
+                                    manifest.uploaded(fullName, sha1, size);
+                                } catch (Exception e) {
+                                    log.log(Level.WARN, "", e);
+                                }
+                            });
+                        }
+                    } catch (Exception e) {
+                        log.log(Level.WARN, "", e);
+                    }
+                    return CompletableFuture.completedFuture(null);
+                }).collect(Collectors.toList());
+
+        System.out.println("Waiting for uploads...");
+        for (Future<?> future : futures) {
+            future.get(10, TimeUnit.MINUTES);
+        }
+        System.out.println("Waiting for upload executor...");
+        uploadExecutor.shutdown();
+        boolean b = uploadExecutor.awaitTermination(60, TimeUnit.MINUTES);
+        System.out.println(b);
+        manifest.save();
+        log.info("{} files needed uploading, {} were unchanged", futures.size() - skipped.get(), skipped.get());
+        b2Client.close();
+    }
+
+    /**
+     * Releases everything the job still holds, whether it finished or not
+     */
+    public void close() {
+        if (git != null) {
+            git.close();
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.warn("Failed to close journal of {}", version, e);
+            }
+        } else if (jarFile != null) {
+            jarFile.delete();
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only record of a version's progress (journal/&lt;version&gt;/journal.log), so a restarted run can skip what an interrupted one already finished:
+ * completed {@link VersionJob.Stage stages}, files by hash, the paths the jar was extracted to and partially downloaded files.
+ * The journal starts over if the version's sha1 changed.
+ */
+public class VersionJournal implements Closeable {
+
+    private static final String LOG = "journal.log";
+    private static final String EXTRACTED = "extracted.txt";
+
+    private final File directory;
+    private final Set<VersionJob.Stage> stages = Collections.synchronizedSet(EnumSet.noneOf(VersionJob.Stage.class));
+    private final Map<String, String> files = new ConcurrentHashMap<>();
+    private Writer writer;
+
+    private VersionJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param identity identifies the version's content (the sha1 of its JSON), progress recorded for anything else is discarded
+     */
+    public static VersionJournal open(File root, String safeVersion, String identity) throws IOException {
+        VersionJournal journal = new VersionJournal(new File(root, safeVersion));
+        File log = new File(journal.directory, LOG);
+        boolean valid = false;
+        if (log.isFile()) {
+            List<String> lines = Files.readAllLines(log.toPath(), StandardCharsets.UTF_8);
+            valid = !lines.isEmpty() && lines.get(0).equals("version " + identity);
+            if (valid) {
+                for (String line : lines) {
+                    journal.replay(line);
+                }
+            }
+        }
+        if (!valid) {
+            FileUtils.deleteDirectory(journal.directory);
+        }
+        if (!journal.directory.isDirectory() && !journal.directory.mkdirs()) {
+            throw new IOException("Failed to create journal directory " + journal.directory);
+        }
+        journal.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(log, valid), StandardCharsets.UTF_8));
+        if (!valid) {
+            journal.append("version " + identity);
+        }
+        return journal;
+    }
+
+    private void replay(String line) {
+        int space = line.indexOf(' ');
+        if (space < 0) {
+            return;
+        }
+        String value = line.substring(space + 1);
+        switch (line.substring(0, space)) {
+            case "stage" -> stages.add(VersionJob.Stage.valueOf(value));
+            case "file" -> {
+                int separator = value.indexOf(' ');
+                files.put(value.substring(separator + 1), value.substring(0, separator));
+            }
+        }
+    }
+
+    private synchronized void append(String line) throws IOException {
+        writer.write(line);
+        writer.write('\n');
+        writer.flush();
+    }
+
+    public boolean isDone(VersionJob.Stage stage) {
+        return stages.contains(stage);
+    }
+
+    public boolean isComplete() {
+        return stages.size() == VersionJob.Stage.values().length;
+    }
+
+    /**
+     * Whether an earlier run got past the metadata stage, i.e. the work tree holds its progress
+     */
+    public boolean isResuming() {
+        return !files.isEmpty() || stages.stream().anyMatch(stage -> stage != VersionJob.Stage.METADATA);
+    }
+
+    public void done(VersionJob.Stage stage) throws IOException {
+        if (stages.add(stage)) {
+            append("stage " + stage.name());
+        }
+    }
+
+    public boolean isFileDone(String path, String hash) {
+        return hash != null && hash.equalsIgnoreCase(files.get(path));
+    }
+
+    public void fileDone(String path, String hash) throws IOException {
+        if (hash != null && !hash.equalsIgnoreCase(files.put(path, hash))) {
+            append("file " + hash + " " + path);
+        }
+    }
+
+    /**
+     * A file in the journal directory, e.g. for partial downloads
+     */
+    public File file(String name) {
+        return new File(directory, name);
+    }
+
+    public void saveExtracted(Collection<String> paths) throws IOException {
+        Files.write(file(EXTRACTED).toPath(), paths, StandardCharsets.UTF_8);
+    }
+
+    public List<String> extracted() throws IOException {
+        File file = file(EXTRACTED);
+        return file.isFile() ? Files.readAllLines(file.toPath(), StandardCharsets.UTF_8) : List.of();
+    }
+
+    /**
+     * Drops everything but the completed stages once the version is done
+     */
+    public void complete() throws IOException {
+        rewrite(true);
+    }
+
+    /**
+     * Forgets all progress, e.g. because the work tree it refers to is gone
+     */
+    public void reset() throws IOException {
+        rewrite(false);
+    }
+
+    private synchronized void rewrite(boolean keepStages) throws IOException {
+        String header = Files.readAllLines(file(LOG).toPath(), StandardCharsets.UTF_8).get(0);
+        writer.close();
+        for (File file : Objects.requireNonNull(directory.listFiles())) {
+            if (!LOG.equals(file.getName())) {
+                FileUtils.forceDelete(file);
+            }
+        }
+        files.clear();
+        if (!keepStages) {
+            stages.clear();
+        }
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file(LOG)), StandardCharsets.UTF_8));
+        append(header);
+        for (VersionJob.Stage stage : VersionJob.Stage.values()) {
+            if (stages.contains(stage)) {
+                append("stage " + stage.name());
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+
+}
@@ -0,0 +1,158 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import org.inventivetalent.mcasset.downloader.data.Download;
+import org.inventivetalent.mcasset.downloader.data.Downloads;
+import org.inventivetalent.mcasset.downloader.data.asset.Asset;
+import org.inventivetalent.mcasset.downloader.data.asset.VersionAssetDetails;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+
+/**
+ * Compact path -&gt; size/hash listing of a version: jar entries with the CRC-32 from the zip central directory,
+ * external assets and mappings with their sha1. Enough to tell which files two versions don't share, without extracting either.
+ */
+public class VersionManifest {
+
+    private static final Gson GSON = new Gson();
+
+    private final Map<String, Entry> entries;
+
+    VersionManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @param jarFile the downloaded client jar, or null to read its central directory from the server
+     */
+    public static VersionManifest build(Downloader downloader, VersionAssetDetails details, File jarFile) throws IOException {
+        Download client = details.downloads().client();
+        return buildFromEntries(downloader, details, jarFile != null ? ZipDirectory.read(jarFile) : ZipDirectory.read(downloader.http, client.url(), client.size()));
+    }
+
+    /**
+     * @param jarEntries the client jar's entries, e.g. as they were seen while it was streamed
+     */
+    public static VersionManifest buildFromEntries(Downloader downloader, VersionAssetDetails details, List<ZipDirectory.Entry> jarEntries) throws IOException {
+        Map<String, Entry> entries = new TreeMap<>();
+
+        for (ZipDirectory.Entry entry : jarEntries) {
+            if (!entry.isDirectory() && (entry.name().startsWith("assets/") || entry.name().startsWith("data/"))) {
+                entries.put(entry.name(), new Entry(entry.size(), String.format("%08x", entry.crc()), null));
+            }
+        }
+        try (AssetIndexReader reader = downloader.openAssetIndex(details.assetIndex())) {
+            while (reader.hasNext()) {
+                Map.Entry<String, Asset> asset = reader.next();
+                entries.put("assets/" + asset.getKey(), new Entry(asset.getValue().size(), null, asset.getValue().hash()));
+            }
+        }
+        Downloads downloads = details.downloads();
+        if (downloads.clientMappings() != null && downloads.serverMappings() != null) {
+            entries.put("mappings/client.txt", new Entry(downloads.clientMappings().size(), null, downloads.clientMappings().sha1()));
+            entries.put("mappings/server.txt", new Entry(downloads.serverMappings().size(), null, downloads.serverMappings().sha1()));
+        }
+        return new VersionManifest(entries);
+    }
+
+    public static VersionManifest load(File file) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            Map<String, Entry> entries = GSON.fromJson(reader, new TypeToken<TreeMap<String, Entry>>() {
+            }.getType());
+            return new VersionManifest(entries != null ? entries : new TreeMap<>());
+        }
+    }
+
+    public void save(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            GSON.toJson(entries, writer);
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to move " + tmp + " to " + file);
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return {"from", "to", "added": [...], "removed": [...], "changed": [...]}, paths sorted
+     */
+    public JsonObject diff(String from, String to, VersionManifest other) {
+        JsonArray added = new JsonArray();
+        JsonArray removed = new JsonArray();
+        JsonArray changed = new JsonArray();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            Entry otherEntry = other.entries.get(entry.getKey());
+            if (otherEntry == null) {
+                removed.add(entry.getKey());
+            } else if (!entry.getValue().sameContent(otherEntry)) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String path : other.entries.keySet()) {
+            if (!entries.containsKey(path)) {
+                added.add(path);
+            }
+        }
+        JsonObject diff = new JsonObject();
+        diff.addProperty("from", from);
+        diff.addProperty("to", to);
+        diff.add("added", added);
+        diff.add("removed", removed);
+        diff.add("changed", changed);
+        return diff;
+    }
+
+    static String toJson(JsonObject diff) {
+        return new GsonBuilder().setPrettyPrinting().create().toJson(diff);
+    }
+
+    /**
+     * @param crc32 of jar entries
+     * @param sha1  of external assets and mappings
+     */
+    public record Entry(long size, String crc32, String sha1) {
+
+        boolean sameContent(Entry other) {
+            if (size != other.size) {
+                return false;
+            }
+            if (crc32 != null && other.crc32 != null) {
+                return crc32.equals(other.crc32);
+            }
+            if (sha1 != null && other.sha1 != null) {
+                return sha1.equalsIgnoreCase(other.sha1);
+            }
+            // a jar entry that became an external asset (or the other way around)
+            return Objects.equals(crc32, other.crc32) && Objects.equals(sha1, other.sha1);
+        }
+
+    }
+
+}
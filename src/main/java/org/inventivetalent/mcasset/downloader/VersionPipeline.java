@@ -0,0 +1,115 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.apache.logging.log4j.Logger;
+import org.inventivetalent.mcasset.downloader.data.Version;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+/**
+ * Runs versions through the {@link VersionJob.Stage stages} with a limited number of versions in flight
+ * and a separate concurrency limit per stage, so e.g. one version can upload while the next one downloads
+ */
+public class VersionPipeline {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(VersionPipeline.class);
+
+    private final Downloader downloader;
+    private final int parallelVersions;
+    private final boolean skipCompleted;
+    private final Map<VersionJob.Stage, Semaphore> stageLimits = new EnumMap<>(VersionJob.Stage.class);
+
+    /**
+     * @param skipCompleted whether versions an earlier run already finished are skipped (batches and watch mode), instead of processed again
+     */
+    public VersionPipeline(Downloader downloader, int parallelVersions, Map<VersionJob.Stage, Integer> stageConcurrency, boolean skipCompleted) {
+        this.downloader = downloader;
+        this.parallelVersions = Math.max(1, parallelVersions);
+        this.skipCompleted = skipCompleted;
+        for (VersionJob.Stage stage : VersionJob.Stage.values()) {
+            this.stageLimits.put(stage, new Semaphore(Math.max(1, stageConcurrency.getOrDefault(stage, 1)), true));
+        }
+    }
+
+    public void run(List<Version> versions) {
+        if (versions.size() == 1) {
+            process(versions.get(0));
+            return;
+        }
+
+        List<Version> failed = runAll(versions);
+        if (!failed.isEmpty()) {
+            throw new RuntimeException(failed.size() + " versions failed: " + failed.stream().map(Version::id).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Processes all versions, logging failures instead of giving up
+     *
+     * @return the versions that failed
+     */
+    public List<Version> runAll(List<Version> versions) {
+        log.info("Processing {} versions, {} at a time", versions.size(), parallelVersions);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelVersions, versions.size()));
+        List<Future<?>> futures = new ArrayList<>();
+        for (Version version : versions) {
+            futures.add(executor.submit(() -> process(version)));
+        }
+        executor.shutdown();
+
+        List<Version> failed = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                log.error("Failed to process version {}", versions.get(i).id(), e.getCause());
+                failed.add(versions.get(i));
+            }
+        }
+        return failed;
+    }
+
+    void process(Version version) {
+        VersionJob job = new VersionJob(downloader, version);
+        try {
+            if (job.resume()) {
+                if (skipCompleted) {
+                    log.info("{} was already completed by an earlier run", version.id());
+                    return;
+                }
+                log.info("{} was already completed by an earlier run, processing it again", version.id());
+                job.restart();
+            }
+            for (VersionJob.Stage stage : VersionJob.Stage.values()) {
+                Semaphore limit = stageLimits.get(stage);
+                limit.acquire();
+                try {
+                    job.run(stage);
+                } finally {
+                    limit.release();
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            job.close();
+        }
+        System.out.println();
+
+        log.info("HTTP connection pool: {}", downloader.http.stats());
+        System.out.println("Finished downloading " + version.id());
+    }
+
+}
@@ -0,0 +1,351 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.Gson;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves the extracted trees of all processed versions over HTTP, as /&lt;version&gt;/&lt;path&gt;.
+ * Files are sent with {@link FileChannel#transferTo}, with strong ETags (their sha1, computed once per file version)
+ * and single byte ranges. The _list.json/_all.json index files are kept in memory.
+ */
+public class VersionServer {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(VersionServer.class);
+
+    private final File root;
+    private final InetSocketAddress address;
+    private final int threads;
+    private final long indexCacheSize;
+    private final int etagCacheEntries;
+
+    // file -> sha1 of its content at that size/modification time, least recently used first
+    private final LinkedHashMap<File, Stamp> sha1s = new LinkedHashMap<>(1024, 0.75f, true);
+    // index file -> its content, least recently used first
+    private final LinkedHashMap<File, Cached> indexCache = new LinkedHashMap<>(64, 0.75f, true);
+    private long indexCacheBytes;
+
+    /**
+     * @param indexCacheSize   bytes of index files to keep in memory
+     * @param etagCacheEntries number of files whose sha1 (ETag) is remembered
+     */
+    public VersionServer(File root, InetSocketAddress address, int threads, long indexCacheSize, int etagCacheEntries) {
+        this.root = root;
+        this.address = address;
+        this.threads = Math.max(1, threads);
+        this.indexCacheSize = indexCacheSize;
+        this.etagCacheEntries = Math.max(1, etagCacheEntries);
+    }
+
+    public void start() throws IOException {
+        HttpServer server = HttpServer.create(address, 128);
+        server.createContext("/", exchange -> {
+            try {
+                handle(exchange);
+            } catch (IOException e) {
+                log.debug("Failed to serve {}", exchange.getRequestURI(), e);
+            } finally {
+                exchange.close();
+            }
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "version-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+        log.info("Serving {} on http://{}:{}/", root, address.getHostString(), server.getAddress().getPort());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if (!"GET".equals(method) && !"HEAD".equals(method)) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            exchange.sendResponseHeaders(405, -1);
+            return;
+        }
+        boolean head = "HEAD".equals(method);
+
+        String path = exchange.getRequestURI().getPath();
+        if (path.equals("/")) {
+            sendBytes(exchange, versions(), "application/json", head);
+            return;
+        }
+        File file = resolve(path);
+        if (file == null) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        if (file.isDirectory()) {
+            file = new File(file, "_list.json");
+        }
+        if (!file.isFile()) {
+            exchange.sendResponseHeaders(404, -1);
+            return;
+        }
+        serveFile(exchange, file, head);
+    }
+
+    /**
+     * Maps /&lt;version&gt;/&lt;path&gt; to a file in the version's tree, refusing anything outside it or inside its .git
+     */
+    File resolve(String uriPath) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : uriPath.split("/")) {
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..") || segment.startsWith(".git") || segment.contains("\\")) {
+                return null;
+            }
+            segments.add(segment);
+        }
+        if (segments.isEmpty()) {
+            return null;
+        }
+        File versionDirectory = new File(root, segments.get(0));
+        if (!versionDirectory.isDirectory()) {
+            versionDirectory = new File(root, VersionJob.safeVersion(segments.get(0)));
+            if (!versionDirectory.isDirectory()) {
+                return null;
+            }
+        }
+        File file = versionDirectory;
+        for (String segment : segments.subList(1, segments.size())) {
+            file = new File(file, segment);
+        }
+        return file;
+    }
+
+    private byte[] versions() {
+        List<String> names = new ArrayList<>();
+        File[] directories = root.listFiles(File::isDirectory);
+        if (directories != null) {
+            for (File directory : directories) {
+                names.add(directory.getName());
+            }
+        }
+        Collections.sort(names);
+        return new Gson().toJson(names).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void serveFile(HttpExchange exchange, File file, boolean head) throws IOException {
+        long lastModified = file.lastModified();
+        // index files may be regenerated at any time, so everything about them is taken from the one copy that is sent
+        Cached index = isIndex(file) ? cachedIndex(file, file.length(), lastModified) : null;
+        long size = index != null ? index.content().length : file.length();
+        String etag = "\"" + (index != null ? index.sha1() : sha1(file, size, lastModified)) + "\"";
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("Content-Type", contentType(file.getName()));
+
+        if (matches(exchange.getRequestHeaders().getFirst("If-None-Match"), etag)) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        long first = 0;
+        long last = size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range != null && (ifRange == null || ifRange.equals(etag))) {
+            long[] bounds = parseRange(range, size);
+            if (bounds == null) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            if (bounds.length == 2) {
+                first = bounds[0];
+                last = bounds[1];
+                status = 206;
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + size);
+            }
+        }
+        long length = last - first + 1;
+
+        if (index != null) {
+            exchange.sendResponseHeaders(status, head ? -1 : length == 0 ? -1 : length);
+            if (!head && length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(index.content(), (int) first, (int) length);
+                }
+            }
+            return;
+        }
+
+        exchange.sendResponseHeaders(status, head ? -1 : length == 0 ? -1 : length);
+        if (head || length == 0) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             OutputStream out = exchange.getResponseBody()) {
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = first;
+            long end = last + 1;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("File " + file + " shrank while serving it");
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * @return {first, last}, an empty array to serve the whole file (no usable range), or null if the range can't be satisfied
+     */
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            // multiple ranges aren't supported, the whole file is a valid answer to those
+            return new long[0];
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new long[0];
+        }
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            long first;
+            long last;
+            if (from.isEmpty()) {
+                // suffix: the last n bytes
+                long suffix = Long.parseLong(to);
+                if (suffix <= 0) {
+                    return null;
+                }
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(from);
+                last = to.isEmpty() ? size - 1 : Math.min(size - 1, Long.parseLong(to));
+            }
+            if (first >= size || first > last) {
+                return null;
+            }
+            return new long[]{first, last};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if (candidate.equals("*") || candidate.equals(etag) || candidate.equals("W/" + etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String sha1(File file, long size, long lastModified) throws IOException {
+        Stamp stamp;
+        synchronized (sha1s) {
+            stamp = sha1s.get(file);
+        }
+        if (stamp == null || stamp.size() != size || stamp.lastModified() != lastModified) {
+            stamp = new Stamp(size, lastModified, ObjectStore.sha1(file));
+            synchronized (sha1s) {
+                sha1s.put(file, stamp);
+                Iterator<Stamp> iterator = sha1s.values().iterator();
+                while (sha1s.size() > etagCacheEntries && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+        }
+        return stamp.sha1();
+    }
+
+    private static boolean isIndex(File file) {
+        return file.getName().equals("_list.json") || file.getName().equals("_all.json");
+    }
+
+    /**
+     * @return the index file's content and its sha1, from memory if it didn't change since it was cached, or null if it doesn't fit
+     */
+    private Cached cachedIndex(File file, long size, long lastModified) throws IOException {
+        if (size > indexCacheSize) {
+            return null;
+        }
+        synchronized (indexCache) {
+            Cached cached = indexCache.get(file);
+            if (cached != null && cached.content().length == size && cached.lastModified() == lastModified) {
+                return cached;
+            }
+        }
+        byte[] content = Files.readAllBytes(file.toPath());
+        Cached cached = new Cached(lastModified, content, ObjectStore.hex(ObjectStore.newSha1().digest(content)));
+        if (content.length != size) {
+            // changed while reading, don't cache it
+            return cached;
+        }
+        synchronized (indexCache) {
+            Cached previous = indexCache.put(file, cached);
+            indexCacheBytes += content.length - (previous != null ? previous.content().length : 0);
+            Iterator<Cached> iterator = indexCache.values().iterator();
+            while (indexCacheBytes > indexCacheSize && iterator.hasNext()) {
+                indexCacheBytes -= iterator.next().content().length;
+                iterator.remove();
+            }
+        }
+        return cached;
+    }
+
+    private static void sendBytes(HttpExchange exchange, byte[] body, String contentType, boolean head) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, head ? -1 : body.length);
+        if (!head) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    static String contentType(String name) {
+        if (name.endsWith(".json") || name.endsWith(".mcmeta")) {
+            return "application/json";
+        }
+        if (name.endsWith(".ogg")) {
+            return "audio/ogg";
+        }
+        String type = URLConnection.guessContentTypeFromName(name);
+        return type != null ? type : name.endsWith(".txt") || name.endsWith(".lang") ? "text/plain; charset=utf-8" : "application/octet-stream";
+    }
+
+    private record Stamp(long size, long lastModified, String sha1) {
+    }
+
+    private record Cached(long lastModified, byte[] content, String sha1) {
+    }
+
+}
@@ -0,0 +1,152 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.logging.log4j.Logger;
+import org.inventivetalent.mcasset.downloader.data.Version;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Daemon mode: polls the version manifest (revalidated with a conditional request) and publishes every version that is new
+ * or whose time changed, keeping connections, caches and repositories warm in between.
+ * What was published is remembered in a state file (version id -> time), so a restart doesn't publish everything again.
+ */
+public class VersionWatcher {
+
+    private final Logger log = org.apache.logging.log4j.LogManager.getLogger(VersionWatcher.class);
+
+    private final Downloader downloader;
+    private final long intervalMillis;
+    private final Set<String> types;
+    private final File stateFile;
+
+    private final Map<String, String> published = new TreeMap<>();
+    private final CountDownLatch stopRequested = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public VersionWatcher(Downloader downloader, long intervalMillis, Set<String> types, File stateFile) {
+        this.downloader = downloader;
+        this.intervalMillis = Math.max(1000, intervalMillis);
+        this.types = types;
+        this.stateFile = stateFile;
+    }
+
+    public void run() {
+        try {
+            loadState();
+            log.info("Watching for new versions every {} seconds", TimeUnit.MILLISECONDS.toSeconds(intervalMillis));
+            do {
+                try {
+                    poll();
+                } catch (Exception e) {
+                    log.error("Failed to check for new versions", e);
+                } finally {
+                    downloader.writeMetricsReport();
+                }
+            } while (!stopRequested.await(intervalMillis, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            stopped.countDown();
+        }
+        log.info("Stopped watching");
+    }
+
+    /**
+     * Lets the version currently being processed finish, then stops the loop. Meant for a shutdown hook.
+     */
+    public void stop() {
+        stopRequested.countDown();
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void poll() throws IOException {
+        downloader.refreshVersions();
+        List<Version> versions = downloader.versions.versions().stream()
+                .filter(version -> types.isEmpty() || types.contains(version.type()))
+                .collect(Collectors.toList());
+
+        if (!stateFile.exists()) {
+            // first start: everything already out there is the baseline, only what appears from now on is published
+            versions.forEach(version -> published.put(version.id(), version.time()));
+            saveState();
+            log.info("Recorded {} existing versions, publishing new ones from now on", versions.size());
+            return;
+        }
+
+        List<Version> changed = new ArrayList<>();
+        for (Version version : versions) {
+            if (!Objects.equals(published.get(version.id()), version.time())) {
+                changed.add(version);
+            }
+        }
+        if (changed.isEmpty()) {
+            log.debug("No new versions");
+            return;
+        }
+        // the manifest lists the newest first
+        Collections.reverse(changed);
+        log.info("New or changed versions: {}", changed.stream().map(Version::id).collect(Collectors.toList()));
+
+        Set<Version> failed = new HashSet<>(new VersionPipeline(downloader, downloader.pipelineVersions, downloader.pipelineStageConcurrency, true).runAll(changed));
+        for (Version version : changed) {
+            if (!failed.contains(version)) {
+                published.put(version.id(), version.time());
+            }
+        }
+        saveState();
+        if (!failed.isEmpty()) {
+            log.warn("{} versions failed and will be retried on the next check", failed.size());
+        }
+    }
+
+    private void loadState() throws IOException {
+        if (!stateFile.exists()) {
+            return;
+        }
+        try (Reader reader = new InputStreamReader(new FileInputStream(stateFile), StandardCharsets.UTF_8)) {
+            Map<String, String> loaded = new Gson().fromJson(reader, new TypeToken<Map<String, String>>() {
+            }.getType());
+            if (loaded != null) {
+                published.putAll(loaded);
+            }
+        }
+    }
+
+    private void saveState() throws IOException {
+        File parent = stateFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(stateFile), StandardCharsets.UTF_8)) {
+            new Gson().toJson(published, writer);
+        }
+    }
+
+}
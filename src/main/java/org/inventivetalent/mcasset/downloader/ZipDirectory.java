@@ -0,0 +1,149 @@
+package org.inventivetalent.mcasset.downloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the central directory of a zip (name, CRC-32 and size of every entry) without touching the entries themselves,
+ * from a local file or from a URL with two Range requests
+ */
+public class ZipDirectory {
+
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    public static List<Entry> read(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            return read(in.length(), (offset, length) -> {
+                byte[] bytes = new byte[length];
+                in.seek(offset);
+                in.readFully(bytes);
+                return bytes;
+            });
+        }
+    }
+
+    public static List<Entry> read(HttpTransport http, String url, long size) throws IOException {
+        return read(size, (offset, length) -> {
+            long last = offset + length - 1;
+            try (HttpTransport.Response response = http.get(url, Map.of("Range", "bytes=" + offset + "-" + last))) {
+                if (response.statusCode() != 206) {
+                    // a 200 would be the whole jar
+                    throw new IOException("Server did not return range " + offset + "-" + last + " of " + url + " (HTTP " + response.statusCode() + ")");
+                }
+                byte[] bytes = response.body().readNBytes(length);
+                if (bytes.length != length) {
+                    throw new IOException("Range " + offset + "-" + last + " of " + url + " ended after " + bytes.length + " bytes");
+                }
+                return bytes;
+            }
+        });
+    }
+
+    static List<Entry> read(long size, RangeReader reader) throws IOException {
+        int tailLength = (int) Math.min(size, END_SIZE + MAX_COMMENT);
+        long tailOffset = size - tailLength;
+        ByteBuffer tail = ByteBuffer.wrap(reader.read(tailOffset, tailLength)).order(ByteOrder.LITTLE_ENDIAN);
+
+        int end = -1;
+        for (int i = tailLength - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw new IOException("No zip central directory found");
+        }
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        if (count == 0xFFFF || directorySize == 0xFFFFFFFFL || directoryOffset == 0xFFFFFFFFL) {
+            // zip64: the real values are in the zip64 end record the locator (right before the end record) points at
+            int locator = end - 20;
+            if (locator < 0 || tail.getInt(locator) != ZIP64_LOCATOR_SIGNATURE) {
+                throw new IOException("Missing zip64 end of central directory locator");
+            }
+            long zip64End = tail.getLong(locator + 8);
+            ByteBuffer record = ByteBuffer.wrap(reader.read(zip64End, 56)).order(ByteOrder.LITTLE_ENDIAN);
+            if (record.getInt(0) != ZIP64_END_SIGNATURE) {
+                throw new IOException("Invalid zip64 end of central directory record");
+            }
+            count = record.getLong(32);
+            directorySize = record.getLong(40);
+            directoryOffset = record.getLong(48);
+        }
+        if (directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory too large (" + directorySize + " bytes)");
+        }
+
+        ByteBuffer directory;
+        if (directoryOffset >= tailOffset) {
+            // small archives: the directory was already part of the tail
+            directory = tail.slice((int) (directoryOffset - tailOffset), (int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            directory = ByteBuffer.wrap(reader.read(directoryOffset, (int) directorySize)).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, 1 << 16));
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (directory.getInt(position) != HEADER_SIGNATURE) {
+                throw new IOException("Invalid central directory header at " + (directoryOffset + position));
+            }
+            long crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+            long entrySize = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            byte[] name = new byte[nameLength];
+            directory.get(position + 46, name);
+            if (entrySize == 0xFFFFFFFFL) {
+                entrySize = zip64Size(directory, position + 46 + nameLength, extraLength);
+            }
+            entries.add(new Entry(new String(name, StandardCharsets.UTF_8), crc, entrySize));
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Uncompressed size from the zip64 extra field, which comes first in it when present
+     */
+    private static long zip64Size(ByteBuffer directory, int offset, int length) throws IOException {
+        int end = offset + length;
+        while (offset + 4 <= end) {
+            int id = directory.getShort(offset) & 0xFFFF;
+            int size = directory.getShort(offset + 2) & 0xFFFF;
+            if (id == 0x0001 && size >= 8) {
+                return directory.getLong(offset + 4);
+            }
+            offset += 4 + size;
+        }
+        throw new IOException("Missing zip64 size");
+    }
+
+    interface RangeReader {
+        byte[] read(long offset, int length) throws IOException;
+    }
+
+    public record Entry(String name, long crc, long size) {
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+    }
+
+}
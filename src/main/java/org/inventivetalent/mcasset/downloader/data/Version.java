@@ -6,6 +6,7 @@ public final class Version {
     private final String id;
     private final String type;
     private final String url;
+    private final String sha1;
     private final String time;
     private final String releaseTime;
 
@@ -15,12 +16,14 @@ public final class Version {
             String id,
             String type,
             String url,
+            String sha1,
             String time,
             String releaseTime
     ) {
         this.id = id;
         this.type = type;
         this.url = url;
+        this.sha1 = sha1;
         this.time = time;
         this.releaseTime = releaseTime;
     }
@@ -45,6 +48,13 @@ public final class Version {
         return url;
     }
 
+    /**
+     * sha1 of the version JSON (only in version_manifest_v2)
+     */
+    public String sha1() {
+        return sha1;
+    }
+
     public String time() {
         return time;
     }
@@ -61,13 +71,14 @@ public final class Version {
         return Objects.equals(this.id, that.id) &&
                 Objects.equals(this.type, that.type) &&
                 Objects.equals(this.url, that.url) &&
+                Objects.equals(this.sha1, that.sha1) &&
                 Objects.equals(this.time, that.time) &&
                 Objects.equals(this.releaseTime, that.releaseTime);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, type, url, time, releaseTime);
+        return Objects.hash(id, type, url, sha1, time, releaseTime);
     }
 
     @Override
@@ -76,6 +87,7 @@ public final class Version {
                 "id=" + id + ", " +
                 "type=" + type + ", " +
                 "url=" + url + ", " +
+                "sha1=" + sha1 + ", " +
                 "time=" + time + ", " +
                 "releaseTime=" + releaseTime + ']';
     }
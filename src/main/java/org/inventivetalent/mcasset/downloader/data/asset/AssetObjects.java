@@ -1,11 +0,0 @@
-package org.inventivetalent.mcasset.downloader.data.asset;
-
-import java.util.Map;
-
-public record AssetObjects(
-		Map<String, Asset> objects
-) {
-
-
-
-}
@@ -0,0 +1,42 @@
+package org.inventivetalent.mcasset.downloader.data.asset;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Reads asset index entries without going through reflection, there are a few thousand of them per index
+ */
+public class AssetTypeAdapter extends TypeAdapter<Asset> {
+
+    @Override
+    public void write(JsonWriter out, Asset value) throws IOException {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        out.name("hash").value(value.hash());
+        out.name("size").value(value.size());
+        out.endObject();
+    }
+
+    @Override
+    public Asset read(JsonReader in) throws IOException {
+        String hash = null;
+        int size = 0;
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "hash" -> hash = in.nextString();
+                case "size" -> size = in.nextInt();
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Asset(hash, size);
+    }
+
+}
@@ -0,0 +1,58 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BlobStoreTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void filesLinkedFromTheObjectStoreAreDeduplicated() throws IOException {
+        byte[] content = "asset".getBytes(StandardCharsets.UTF_8);
+        String sha1 = ObjectStore.hex(ObjectStore.newSha1().digest(content));
+        ObjectStore objects = new ObjectStore(temp.resolve("objects").toFile(), 0, true);
+        objects.load();
+        File object = objects.tempFile(sha1);
+        Files.write(object.toPath(), content);
+        objects.commitVerified(sha1, object);
+
+        BlobStore blobs = new BlobStore(temp.resolve("blobs").toFile(), temp.resolve("objects").toFile());
+        File blob = blobs.file(sha1);
+        TreeSync first = new TreeSync(temp.resolve("1.20").toFile(), true);
+        TreeSync second = new TreeSync(temp.resolve("1.21").toFile(), true);
+        for (TreeSync sync : new TreeSync[]{first, second}) {
+            assertTrue(objects.copyTo(sha1, sync.file("assets/a.txt")));
+            sync.written("assets/a.txt", sha1);
+            sync.write("assets/b.txt", content);
+            blobs.linkTree(sync, 1);
+        }
+        for (TreeSync sync : new TreeSync[]{first, second}) {
+            assertTrue(Files.isSameFile(blob.toPath(), sync.file("assets/a.txt").toPath()));
+            assertTrue(Files.isSameFile(blob.toPath(), sync.file("assets/b.txt").toPath()));
+        }
+
+        assertEquals(0, blobs.gc());
+        Files.delete(first.file("assets/a.txt").toPath());
+        Files.delete(first.file("assets/b.txt").toPath());
+        Files.delete(second.file("assets/a.txt").toPath());
+        assertEquals(0, blobs.gc());
+        Files.delete(second.file("assets/b.txt").toPath());
+        // only the object store still links to it
+        assertEquals(1, blobs.gc());
+        assertFalse(blob.exists());
+        assertTrue(objects.file(sha1).isFile());
+    }
+
+}
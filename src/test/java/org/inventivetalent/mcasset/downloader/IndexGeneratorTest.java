@@ -0,0 +1,68 @@
+package org.inventivetalent.mcasset.downloader;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class IndexGeneratorTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void invalidFilesAreLeftOutOfAllJson() throws IOException {
+        TreeSync sync = new TreeSync(temp.toFile(), true);
+        write(sync, "data/valid.json", "{\"a\": [1, 2]}");
+        write(sync, "data/lenient.json", "{a: 'b'}");
+        write(sync, "data/truncated.json", "{\"a\": ");
+        write(sync, "data/trailing.json", "[1] [2]");
+        write(sync, "data/empty.json", "");
+        new IndexGenerator(sync, 2).generate();
+
+        String all = Files.readString(temp.resolve("data/_all.json"));
+        // must be strictly valid, not just what the lenient parser accepts
+        JsonReader reader = new JsonReader(new StringReader(all));
+        reader.skipValue();
+        assertEquals(JsonToken.END_DOCUMENT, reader.peek());
+        JsonObject object = JsonParser.parseString(all).getAsJsonObject();
+        assertEquals(Set.of("valid", "lenient"), object.keySet());
+        assertEquals("b", object.getAsJsonObject("lenient").get("a").getAsString());
+        assertEquals(2, object.getAsJsonObject("valid").getAsJsonArray("a").size());
+    }
+
+    @Test
+    public void unchangedAllJsonIsKept() throws IOException {
+        TreeSync first = new TreeSync(temp.toFile(), true);
+        write(first, "assets/a.json", "{\"a\":1}");
+        write(first, "assets/b.png", "png");
+        new IndexGenerator(first, 1).generate();
+        assertTrue(first.changedPaths().contains("assets/_all.json"));
+
+        TreeSync second = new TreeSync(temp.toFile(), true);
+        write(second, "assets/a.json", "{\"a\":1}");
+        write(second, "assets/b.png", "png");
+        new IndexGenerator(second, 1).generate();
+        assertFalse(second.changedPaths().contains("assets/_all.json"));
+        assertFalse(Files.exists(temp.resolve("assets/_all.json.tmp")));
+        assertEquals("{\"a\":{\"a\":1}}", Files.readString(temp.resolve("assets/_all.json")));
+    }
+
+    private static void write(TreeSync sync, String path, String content) throws IOException {
+        sync.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+}
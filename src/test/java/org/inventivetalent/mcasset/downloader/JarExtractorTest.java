@@ -0,0 +1,161 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JarExtractorTest {
+
+    @TempDir
+    Path temp;
+
+    private File jar;
+
+    @BeforeEach
+    public void createJar() throws IOException {
+        jar = temp.resolve("client.jar").toFile();
+        Random random = new Random(42);
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+            out.write("Manifest-Version: 1.0\n".getBytes(StandardCharsets.UTF_8));
+            out.putNextEntry(new ZipEntry("net/minecraft/client/Main.class"));
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE});
+            out.putNextEntry(new ZipEntry("assets/"));
+            out.putNextEntry(new ZipEntry("assets/minecraft/"));
+            for (int i = 0; i < 200; i++) {
+                // a mix of compressible and random content, some of it larger than the extraction buffer
+                out.putNextEntry(new ZipEntry("assets/minecraft/textures/block/block_" + i + ".png"));
+                byte[] content = new byte[i % 10 == 0 ? 100_000 + i : 10 * i];
+                if (i % 2 == 0) {
+                    random.nextBytes(content);
+                } else {
+                    Arrays.fill(content, (byte) i);
+                }
+                out.write(content);
+            }
+            out.putNextEntry(new ZipEntry("assets/minecraft/lang/empty.json"));
+            for (int i = 0; i < 50; i++) {
+                out.putNextEntry(new ZipEntry("data/minecraft/recipes/recipe_" + i + ".json"));
+                out.write(("{\"type\":\"minecraft:crafting_shaped\",\"id\":" + i + "}").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void extractionPathsProduceIdenticalTrees() throws IOException {
+        File parallel = temp.resolve("parallel").toFile();
+        new JarExtractor(new TreeSync(parallel, false), 4).extract(jar);
+
+        File streaming = temp.resolve("streaming").toFile();
+        try (InputStream in = new FileInputStream(jar)) {
+            new JarExtractor(new TreeSync(streaming, false)).extract(in, jar.length(), sha1(jar));
+        }
+
+        File reference = temp.resolve("reference").toFile();
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(jar))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (entry.isDirectory() || !(name.startsWith("assets/") || name.startsWith("data/"))) {
+                    continue;
+                }
+                File file = new File(reference, name);
+                file.getParentFile().mkdirs();
+                Files.write(file.toPath(), in.readAllBytes());
+            }
+        }
+
+        Map<String, byte[]> expected = tree(reference);
+        assertEquals(251, expected.size());
+        assertTreeEquals(expected, tree(parallel));
+        assertTreeEquals(expected, tree(streaming));
+    }
+
+    @Test
+    public void streamedEntriesMatchTheCentralDirectory() throws IOException {
+        File root = temp.resolve("filtered").toFile();
+        TreeSync sync = new TreeSync(root, false);
+        sync.setFilter(new PathFilter(List.of("data/**"), List.of()));
+        JarExtractor extractor = new JarExtractor(sync);
+        try (InputStream in = new FileInputStream(jar)) {
+            extractor.extract(in, jar.length(), sha1(jar));
+        }
+
+        // filtered entries are part of the manifest too
+        List<ZipDirectory.Entry> expected = ZipDirectory.read(jar).stream()
+                .filter(entry -> !entry.isDirectory() && (entry.name().startsWith("assets/") || entry.name().startsWith("data/")))
+                .collect(Collectors.toList());
+        assertEquals(251, expected.size());
+        assertEquals(expected, extractor.streamedEntries());
+    }
+
+    @Test
+    public void truncatedStreamFails() throws IOException {
+        byte[] content = Files.readAllBytes(jar.toPath());
+        // cut the archive within the central directory, after all entries were read
+        byte[] truncated = Arrays.copyOf(content, content.length - 100);
+        File root = temp.resolve("truncated").toFile();
+        IOException e = assertThrows(IOException.class,
+                () -> new JarExtractor(new TreeSync(root, false)).extract(new ByteArrayInputStream(truncated), content.length, null));
+        assertTrue(e.getMessage().contains("ended after"), e.getMessage());
+        assertFalse(e instanceof HashMismatchException);
+    }
+
+    @Test
+    public void sha1MismatchFails() throws IOException {
+        File root = temp.resolve("mismatch").toFile();
+        String wrong = "0000000000000000000000000000000000000000";
+        try (InputStream in = new FileInputStream(jar)) {
+            assertThrows(HashMismatchException.class,
+                    () -> new JarExtractor(new TreeSync(root, false)).extract(in, jar.length(), wrong));
+        }
+    }
+
+    private static String sha1(File file) throws IOException {
+        return ObjectStore.hex(ObjectStore.newSha1().digest(Files.readAllBytes(file.toPath())));
+    }
+
+    private static Map<String, byte[]> tree(File root) throws IOException {
+        Map<String, byte[]> tree = new TreeMap<>();
+        try (Stream<Path> stream = Files.walk(root.toPath())) {
+            for (Path path : (Iterable<Path>) stream.filter(Files::isRegularFile)::iterator) {
+                tree.put(root.toPath().relativize(path).toString().replace(File.separatorChar, '/'), Files.readAllBytes(path));
+            }
+        }
+        return tree;
+    }
+
+    private static void assertTreeEquals(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getValue(), actual.get(entry.getKey()), entry.getKey());
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PackTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void roundTrip() throws IOException {
+        Random random = new Random(7);
+        Map<String, byte[]> contents = new TreeMap<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] content = new byte[random.nextInt(5000)];
+            random.nextBytes(content);
+            contents.put("assets/minecraft/textures/item/item_" + i + ".png", content);
+        }
+        byte[] shared = "{\"parent\":\"block/cube_all\"}".getBytes(StandardCharsets.UTF_8);
+        contents.put("assets/minecraft/models/block/a.json", shared);
+        contents.put("assets/minecraft/models/block/b.json", shared);
+        contents.put("data/minecraft/tags/empty.json", new byte[0]);
+        contents.put("data/minecraft/tags/\u00fcn\u00efcode.json", "[]".getBytes(StandardCharsets.UTF_8));
+
+        File pack = temp.resolve("packs/1.20.mcpack").toFile();
+        int blobs;
+        try (PackWriter writer = new PackWriter(pack)) {
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                File source = temp.resolve("source.tmp").toFile();
+                Files.write(source.toPath(), entry.getValue());
+                // known and unknown hashes both end up in the index
+                String sha1 = entry.getKey().startsWith("data/") ? null : ObjectStore.hex(ObjectStore.newSha1().digest(entry.getValue()));
+                writer.add(entry.getKey(), source, sha1);
+            }
+            writer.finish();
+            blobs = writer.blobCount();
+        }
+        assertEquals(contents.size() - 1, blobs);
+        assertFalse(new File(pack.getPath() + ".tmp").exists());
+
+        try (PackReader reader = new PackReader(pack)) {
+            assertEquals(contents.size(), reader.size());
+            for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+                PackReader.Entry packed = reader.find(entry.getKey());
+                assertEquals(ObjectStore.hex(ObjectStore.newSha1().digest(entry.getValue())), packed.sha1());
+                try (InputStream in = reader.open(entry.getKey())) {
+                    assertArrayEquals(entry.getValue(), in.readAllBytes(), entry.getKey());
+                }
+            }
+            assertEquals(reader.find("assets/minecraft/models/block/a.json").offset(), reader.find("assets/minecraft/models/block/b.json").offset());
+            assertNull(reader.find("assets/minecraft/missing.json"));
+            assertNull(reader.open("assets"));
+
+            assertEquals(List.of("assets/minecraft/models/block/a.json", "assets/minecraft/models/block/b.json"), reader.list("assets/minecraft/models/"));
+            assertEquals(List.of("data/minecraft/tags/empty.json", "data/minecraft/tags/\u00fcn\u00efcode.json"), reader.list("data/"));
+            assertEquals(contents.size(), reader.list("").size());
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PathFilterTest {
+
+    @Test
+    public void configGlobsKeepBraceAlternatives() {
+        // as read from filter.include
+        List<String> includes = PathFilter.split("assets/**/*.{png,json},data/*/recipe");
+        assertEquals(List.of("assets/**/*.{png,json}", "data/*/recipe"), includes);
+        assertBraceGlobMatches(new PathFilter(includes, PathFilter.split("")));
+    }
+
+    @Test
+    public void commandLineGlobsKeepBraceAlternatives() {
+        // as passed to --include/--exclude, once with a list and once repeated
+        Downloader downloader = new Downloader();
+        downloader.setPathFilter(new String[]{"assets/**/*.{png,json,fsh,vsh},data/*/recipe"}, new String[]{"**/*.{ogg,fsh}", "**/*.vsh"});
+        assertBraceGlobMatches(downloader.pathFilter);
+        assertFalse(downloader.pathFilter.accepts("assets/minecraft/shaders/core/a.fsh"));
+        assertFalse(downloader.pathFilter.accepts("assets/minecraft/shaders/core/a.vsh"));
+    }
+
+    private static void assertBraceGlobMatches(PathFilter filter) {
+        assertTrue(filter.accepts("assets/minecraft/textures/block/stone.png"));
+        assertTrue(filter.accepts("assets/minecraft/models/block/stone.json"));
+        assertTrue(filter.accepts("data/minecraft/recipe/stone.json"));
+        assertFalse(filter.accepts("assets/minecraft/sounds/step.ogg"));
+        assertFalse(filter.accepts("assets/minecraft/texts/splashes.txt"));
+    }
+
+}
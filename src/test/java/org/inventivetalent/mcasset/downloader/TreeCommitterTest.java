@@ -0,0 +1,122 @@
+package org.inventivetalent.mcasset.downloader;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TreeCommitterTest {
+
+    @TempDir
+    Path temp;
+
+    @Test
+    public void commitsFilesRestoredWhileResuming() throws Exception {
+        File root = temp.toFile();
+        try (Git git = Git.init().setDirectory(root).call()) {
+            write(root, ".gitignore", "*.tmp\n");
+            git.add().addFilepattern(".gitignore").call();
+            git.commit().setMessage("init").call();
+
+            TreeSync first = new TreeSync(root, true);
+            first.write("assets/a.json", bytes("{}"));
+            first.write("assets/b.json", bytes("[]"));
+            commit(git, first, true);
+
+            // written by an interrupted run, but never added to the index
+            write(root, "assets/c.json", "1");
+            write(root, "assets/e.json", "3");
+            TreeSync second = new TreeSync(root, true);
+            second.setResuming(true);
+            second.write("assets/a.json", bytes("{}"));
+            second.unchanged("assets/c.json");
+            second.write("assets/e.json", bytes("3"));
+            second.write("data/d.json", bytes("2"));
+            second.deleteStale();
+            RevCommit commit = commit(git, second, true);
+
+            assertEquals(Set.of(".gitignore", "assets/a.json", "assets/c.json", "assets/e.json", "data/d.json"), paths(git, commit));
+        }
+    }
+
+    @Test
+    public void untrustedIndexIsComparedWithTheWholeTree() throws Exception {
+        File root = temp.toFile();
+        try (Git git = Git.init().setDirectory(root).call()) {
+            TreeSync first = new TreeSync(root, true);
+            first.write("assets/a.json", bytes("{}"));
+            commit(git, first, true);
+
+            // left behind by a run nobody recorded
+            write(root, "assets/c.json", "1");
+            TreeSync second = new TreeSync(root, true);
+            second.write("assets/a.json", bytes("{}"));
+            second.write("assets/c.json", bytes("1"));
+            assertEquals(Set.of("assets/a.json"), paths(git, commit(git, second, true)));
+            assertEquals(Set.of("assets/a.json", "assets/c.json"), paths(git, commit(git, second, false)));
+        }
+    }
+
+    @Test
+    public void filteredRunKeepsFilesOutsideTheFilter() throws Exception {
+        File root = temp.toFile();
+        try (Git git = Git.init().setDirectory(root).call()) {
+            TreeSync full = new TreeSync(root, true);
+            full.write("assets/lang/en_us.json", bytes("{}"));
+            full.write("assets/sounds/a.ogg", bytes("a"));
+            full.write("data/recipes/b.json", bytes("{}"));
+            commit(git, full, true);
+
+            TreeSync filtered = new TreeSync(root, true);
+            filtered.setFilter(new PathFilter(List.of("assets/lang/**"), List.of()));
+            filtered.write("assets/lang/en_us.json", bytes("{\"a\":1}"));
+            assertEquals(0, filtered.deleteStale());
+            new IndexGenerator(filtered, 1).generate();
+            RevCommit commit = commit(git, filtered, true);
+
+            assertTrue(paths(git, commit).containsAll(Set.of("assets/lang/en_us.json", "assets/sounds/a.ogg", "data/recipes/b.json")));
+            assertTrue(Files.readString(root.toPath().resolve("assets/_list.json")).contains("sounds"));
+        }
+    }
+
+    private static RevCommit commit(Git git, TreeSync sync, boolean trustIndex) throws IOException {
+        return new TreeCommitter(git.getRepository()).commit(sync, "update", new PersonIdent("test", "test@example.com"), trustIndex);
+    }
+
+    private static Set<String> paths(Git git, RevCommit commit) throws IOException {
+        Set<String> paths = new TreeSet<>();
+        try (TreeWalk walk = new TreeWalk(git.getRepository())) {
+            walk.addTree(commit.getTree());
+            walk.setRecursive(true);
+            while (walk.next()) {
+                paths.add(walk.getPathString());
+            }
+        }
+        return paths;
+    }
+
+    private static void write(File root, String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), bytes(content));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+}